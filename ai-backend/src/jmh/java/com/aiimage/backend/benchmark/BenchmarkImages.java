@@ -0,0 +1,64 @@
+package com.aiimage.backend.benchmark;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Payloads shaped like real Stable Diffusion output
+ */
+public final class BenchmarkImages {
+
+    private BenchmarkImages() {}
+
+    /**
+     * A square PNG of noisy gradients, which compresses about as poorly as a real
+     * render. Seeded so every run measures the same bytes.
+     */
+    public static byte[] png(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int r = (x * 255 / size + random.nextInt(32)) & 0xff;
+                int g = (y * 255 / size + random.nextInt(32)) & 0xff;
+                int b = ((x + y) * 127 / size + random.nextInt(32)) & 0xff;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A txt2img response body carrying count copies of the image, with the
+     * parameters/info fields A1111 echoes back
+     */
+    public static byte[] txt2imgResponse(byte[] png, int count) {
+        String encoded = Base64.getEncoder().encodeToString(png);
+        StringBuilder body = new StringBuilder(encoded.length() * count + 256).append("{\"images\":[");
+
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append('"').append(encoded).append('"');
+        }
+
+        body.append("],\"parameters\":{\"prompt\":\"benchmark\",\"steps\":20,\"width\":512,\"height\":512},")
+            .append("\"info\":\"{\\\"seed\\\": 42}\"}");
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
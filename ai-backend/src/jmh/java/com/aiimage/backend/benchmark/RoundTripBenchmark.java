@@ -0,0 +1,162 @@
+package com.aiimage.backend.benchmark;
+
+import com.aiimage.backend.App;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Full HTTP round trips through the running application, with SD and TripoSR
+ * replaced by zero-delay in-process stubs. Scores are the backend's own cost per
+ * request: Tomcat, scheduling, caching, decoding, storage and JSON handling.
+ *
+ * Uncached runs write a small image per call; retention keeps the temp store
+ * under 256 MB while the benchmark runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    private static final Pattern IMAGE_URL = Pattern.compile("\"imageUrl\"\\s*:\\s*\"http://localhost:8080(/api/images/[^\"]+)\"");
+    private static final String CACHED_PROMPT = "a brass telescope on a wooden tripod";
+
+    private final AtomicLong promptCounter = new AtomicLong();
+
+    private Path storageDir;
+    private StubBackends stubs;
+    private ConfigurableApplicationContext context;
+    private HttpClient http;
+    private String baseUrl;
+    private String cachedImagePath;
+
+    @Setup
+    public void setUp() throws Exception {
+        storageDir = Files.createTempDirectory("roundtrip-bench");
+        stubs = StubBackends.start(BenchmarkImages.png(128), 0, 0);
+
+        // Command-line arguments, so they win over application.properties
+        context = new SpringApplicationBuilder(App.class).run(
+            "--server.port=0",
+            "--local.model.url=" + stubs.stableDiffusionUrl(),
+            "--triposr.api.url=" + stubs.tripoSRUrl(),
+            "--app.image.storage.path=" + storageDir.resolve("images"),
+            "--app.model.storage.path=" + storageDir.resolve("models"),
+            "--spring.datasource.url=jdbc:h2:mem:roundtrip-bench;DB_CLOSE_DELAY=-1",
+            "--spring.jpa.hibernate.ddl-auto=create-drop",
+            "--app.storage.retention.max-bytes=268435456",
+            "--app.storage.retention.initial-delay-ms=5000",
+            "--app.storage.retention.interval-ms=5000",
+            "--logging.level.com.aiimage.backend=WARN",
+            "--logging.level.org.springframework.web=WARN");
+
+        baseUrl = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+        http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        Matcher matcher = IMAGE_URL.matcher(generate(CACHED_PROMPT));
+        if (!matcher.find()) {
+            throw new IllegalStateException("Warm-up generation returned no image URL");
+        }
+        cachedImagePath = matcher.group(1);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+        stubs.close();
+        FileSystemUtils.deleteRecursively(storageDir);
+    }
+
+    /** Result cache hit: no scheduler permit, no SD call */
+    @Benchmark
+    public String generateCached() throws Exception {
+        return generate(CACHED_PROMPT);
+    }
+
+    /** Scheduler, SD call, streaming decode, storage, history */
+    @Benchmark
+    public String generateUncached() throws Exception {
+        return generate("benchmark prompt " + promptCounter.incrementAndGet());
+    }
+
+    /** Both pipeline stages, including the multipart upload to TripoSR */
+    @Benchmark
+    public String generate3dUncached() throws Exception {
+        String body = post("/api/3d/generate-from-text", "benchmark model " + promptCounter.incrementAndGet());
+        if (!body.contains("\"generated_image_url\"") || !body.contains("\"files\"")) {
+            throw new IllegalStateException("Text-to-3D did not complete: " + body);
+        }
+        return body;
+    }
+
+    @Benchmark
+    public byte[] getImage() throws Exception {
+        return get(cachedImagePath);
+    }
+
+    /** Derived variant, rendered once and then served from the derived cache */
+    @Benchmark
+    public byte[] getThumbnail() throws Exception {
+        return get(cachedImagePath + "?w=128&fmt=jpeg");
+    }
+
+    /**
+     * Rejects the placeholder fallback, which would otherwise score as a fast render
+     */
+    private String generate(String prompt) throws Exception {
+        String body = post("/api/generate", prompt);
+        if (!IMAGE_URL.matcher(body).find()) {
+            throw new IllegalStateException("Generation fell back to a placeholder: " + body);
+        }
+        return body;
+    }
+
+    private String post(String path, String prompt) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString("{\"prompt\": \"" + prompt + "\"}"))
+            .build();
+        return check(http.send(request, HttpResponse.BodyHandlers.ofString()));
+    }
+
+    private byte[] get(String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+        return check(http.send(request, HttpResponse.BodyHandlers.ofByteArray()));
+    }
+
+    /**
+     * Fails the run on any non-200 so errors are never scored as fast requests
+     */
+    private static <T> T check(HttpResponse<T> response) {
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(response.request().uri() + " returned " + response.statusCode());
+        }
+        return response.body();
+    }
+}
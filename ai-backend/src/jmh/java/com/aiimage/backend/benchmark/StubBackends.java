@@ -0,0 +1,142 @@
+package com.aiimage.backend.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-ins for the A1111 and TripoSR HTTP APIs, bound to ephemeral
+ * loopback ports. They answer with canned bodies after a fixed delay, so
+ * measurements reflect the backend's own overhead rather than the GPU's.
+ */
+public final class StubBackends implements AutoCloseable {
+
+    private static final Pattern BATCH_SIZE = Pattern.compile("\"batch_size\"\\s*:\\s*(\\d+)");
+
+    private static final byte[] TRIPOSR_RESPONSE = ("{\"success\": true, \"request_id\": \"bench\","
+        + " \"files\": {\"obj\": \"/download/bench/mesh.obj\"}}").getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer stableDiffusion;
+    private final HttpServer tripoSR;
+    private final ExecutorService executor;
+    private final byte[] png;
+    private final long sdDelayMs;
+    private final long tripoSRDelayMs;
+    private final Map<Integer, byte[]> txt2imgResponses = new ConcurrentHashMap<>();
+    private final AtomicLong txt2imgCalls = new AtomicLong();
+    private final AtomicLong tripoSRCalls = new AtomicLong();
+
+    private StubBackends(byte[] png, long sdDelayMs, long tripoSRDelayMs) throws IOException {
+        this.png = png;
+        this.sdDelayMs = sdDelayMs;
+        this.tripoSRDelayMs = tripoSRDelayMs;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub-backend");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.stableDiffusion = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        stableDiffusion.createContext("/sdapi/v1/txt2img", this::txt2img);
+        stableDiffusion.createContext("/sdapi/v1/options", exchange -> respond(exchange, "{\"sd_model_checkpoint\": \"stub\"}"));
+        stableDiffusion.createContext("/sdapi/v1/progress", exchange -> respond(exchange,
+            "{\"progress\": 0.5, \"eta_relative\": 1.0, \"state\": {\"job_count\": 1}}"));
+        stableDiffusion.createContext("/sdapi/v1/interrupt", exchange -> respond(exchange, "{}"));
+        stableDiffusion.setExecutor(executor);
+
+        this.tripoSR = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        tripoSR.createContext("/generate-3d", this::generate3d);
+        tripoSR.createContext("/health", exchange -> respond(exchange, "{\"status\": \"ok\"}"));
+        tripoSR.createContext("/list-models", exchange -> respond(exchange, "{\"models\": []}"));
+        tripoSR.setExecutor(executor);
+
+        stableDiffusion.start();
+        tripoSR.start();
+    }
+
+    public static StubBackends start(byte[] png, long sdDelayMs, long tripoSRDelayMs) throws IOException {
+        return new StubBackends(png, sdDelayMs, tripoSRDelayMs);
+    }
+
+    public String stableDiffusionUrl() {
+        return "http://127.0.0.1:" + stableDiffusion.getAddress().getPort();
+    }
+
+    public String tripoSRUrl() {
+        return "http://127.0.0.1:" + tripoSR.getAddress().getPort();
+    }
+
+    public long txt2imgCalls() {
+        return txt2imgCalls.get();
+    }
+
+    public long tripoSRCalls() {
+        return tripoSRCalls.get();
+    }
+
+    @Override
+    public void close() {
+        stableDiffusion.stop(0);
+        tripoSR.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void txt2img(HttpExchange exchange) throws IOException {
+        String request = new String(readBody(exchange), StandardCharsets.UTF_8);
+        Matcher matcher = BATCH_SIZE.matcher(request);
+        int batchSize = matcher.find() ? Integer.parseInt(matcher.group(1)) : 1;
+
+        txt2imgCalls.incrementAndGet();
+        pause(sdDelayMs);
+        respond(exchange, txt2imgResponses.computeIfAbsent(batchSize,
+            count -> BenchmarkImages.txt2imgResponse(png, count)));
+    }
+
+    private void generate3d(HttpExchange exchange) throws IOException {
+        readBody(exchange);
+        tripoSRCalls.incrementAndGet();
+        pause(tripoSRDelayMs);
+        respond(exchange, TRIPOSR_RESPONSE);
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static void pause(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        respond(exchange, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
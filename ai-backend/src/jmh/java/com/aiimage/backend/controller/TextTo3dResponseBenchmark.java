@@ -0,0 +1,55 @@
+package com.aiimage.backend.controller;
+
+import com.aiimage.backend.service.TextTo3dResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON assembly for /api/3d/generate-from-text once both pipeline stages are done
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextTo3dResponseBenchmark {
+
+    private static final String PROMPT = "a vintage \"steampunk\" airship with brass propellers";
+    private static final String IMAGE_URL = "http://localhost:8080/api/images/3d_6f1c0e2a9b7d4c1e8f3a5b6c7d8e9f01.png";
+
+    private Model3dController controller;
+    private TextTo3dResult objectResponse;
+    private TextTo3dResult arrayResponse;
+
+    @Setup
+    public void setUp() {
+        controller = new Model3dController();
+        objectResponse = new TextTo3dResult(PROMPT, IMAGE_URL,
+            "{\"success\": true, \"request_id\": \"8d1f\",<EOL>\n \"files\": {\"obj\": \"/download/8d1f/mesh.obj\","
+                + " \"glb\": \"/download/8d1f/mesh.glb\"}, \"processing_time\": 12.4}\n", null);
+        arrayResponse = new TextTo3dResult(PROMPT, IMAGE_URL,
+            "[\"/download/8d1f/mesh.obj\", \"/download/8d1f/mesh.glb\"]", null);
+    }
+
+    @Benchmark
+    public ResponseEntity<String> objectResponse() {
+        return controller.toResponse(objectResponse);
+    }
+
+    @Benchmark
+    public ResponseEntity<String> nonObjectResponse() {
+        return controller.toResponse(arrayResponse);
+    }
+}
@@ -0,0 +1,87 @@
+package com.aiimage.backend.service;
+
+import com.aiimage.backend.benchmark.BenchmarkImages;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming base64 decode of a txt2img response to disk, followed by publishing
+ * the file into sharded storage. Stored files are deleted inside the measured
+ * call so long runs don't fill the disk; that unlink is part of the score.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageDecodeBenchmark {
+
+    @Param({"512", "1024"})
+    public int imageSize;
+
+    @Param({"1", "4"})
+    public int imagesPerResponse;
+
+    private Path storageDir;
+    private ImageStorage imageStorage;
+    private StableDiffusionClient client;
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws IOException {
+        storageDir = Files.createTempDirectory("decode-bench");
+        imageStorage = new ImageStorage(storageDir.toString());
+        imageStorage.createDirectories();
+
+        client = new StableDiffusionClient();
+        ReflectionTestUtils.setField(client, "imageStorage", imageStorage);
+        ReflectionTestUtils.setField(client, "metrics", new GenerationMetrics(new SimpleMeterRegistry()));
+
+        response = BenchmarkImages.txt2imgResponse(BenchmarkImages.png(imageSize), imagesPerResponse);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(storageDir);
+    }
+
+    @Benchmark
+    public int decodeToTempFiles() throws IOException {
+        List<Path> images = client.readImages(new ByteArrayInputStream(response));
+        for (Path image : images) {
+            Files.delete(image);
+        }
+        return images.size();
+    }
+
+    @Benchmark
+    public int decodeAndStore() throws IOException {
+        List<Path> images = client.readImages(new ByteArrayInputStream(response));
+        for (Path image : images) {
+            String filename = imageStorage.store(image, "bench", "png");
+            Files.delete(imageStorage.resolve(filename));
+        }
+        return images.size();
+    }
+}
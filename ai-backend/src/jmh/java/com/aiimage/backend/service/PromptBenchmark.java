@@ -0,0 +1,68 @@
+package com.aiimage.backend.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prompt rewriting done on every generation request before anything is sent to SD
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PromptBenchmark {
+
+    /** No category match, first category, and last category in the rule table */
+    @Param({
+        "a glowing crystal orb on a pedestal",
+        "a red sports car with chrome wheels",
+        "a vintage propeller airplane with twin engines"
+    })
+    public String prompt;
+
+    private ImageGenerationService imageGenerationService;
+    private TextTo3dPipeline textTo3dPipeline;
+
+    @Setup
+    public void setUp() throws IOException {
+        PromptRuleEngine promptRules = new PromptRuleEngine("classpath:prompt-rules.json", new DefaultResourceLoader());
+        imageGenerationService = new ImageGenerationService();
+        ReflectionTestUtils.setField(imageGenerationService, "promptRules", promptRules);
+        textTo3dPipeline = new TextTo3dPipeline(1, 1, 1, 1, 1, new StandardEnvironment());
+        ReflectionTestUtils.setField(textTo3dPipeline, "promptRules", promptRules);
+    }
+
+    @TearDown
+    public void tearDown() {
+        textTo3dPipeline.shutdown();
+    }
+
+    @Benchmark
+    public String enhancePromptForFraming() {
+        return imageGenerationService.enhancePromptForFraming(prompt);
+    }
+
+    @Benchmark
+    public String optimize3DPrompt() {
+        return textTo3dPipeline.optimize3DPrompt(prompt);
+    }
+}
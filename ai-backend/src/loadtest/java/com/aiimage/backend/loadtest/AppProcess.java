@@ -0,0 +1,215 @@
+package com.aiimage.backend.loadtest;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The Spring app under test, run in its own JVM so the harness never shows up
+ * in its thread and heap numbers. Those are sampled once a second over a
+ * loopback-only JMX connector.
+ */
+public final class AppProcess implements AutoCloseable {
+
+    private final Process process;
+    private final int port;
+    private final JMXConnector jmx;
+    private final ThreadMXBean threads;
+    private final MemoryMXBean memory;
+    private final List<GarbageCollectorMXBean> collectors = new ArrayList<>();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "app-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long gcCountAtStart;
+    private long gcTimeAtStart;
+    private long heapSamples;
+    private long heapUsedSum;
+    private long heapUsedMax;
+    private long heapCommittedMax;
+    private int threadsMax;
+    private long threadSamples;
+    private long threadSum;
+
+    private AppProcess(Process process, int port, JMXConnector jmx) throws IOException {
+        this.process = process;
+        this.port = port;
+        this.jmx = jmx;
+
+        MBeanServerConnection connection = jmx.getMBeanServerConnection();
+        this.threads = ManagementFactory.newPlatformMXBeanProxy(connection,
+            ManagementFactory.THREAD_MXBEAN_NAME, ThreadMXBean.class);
+        this.memory = ManagementFactory.newPlatformMXBeanProxy(connection,
+            ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class);
+        for (GarbageCollectorMXBean collector : ManagementFactory.getPlatformMXBeans(connection,
+                GarbageCollectorMXBean.class)) {
+            collectors.add(collector);
+        }
+    }
+
+    /**
+     * Starts the app on a free port with the harness classpath and waits until
+     * /api/health answers. appArgs are passed as Spring command-line properties.
+     */
+    public static AppProcess start(List<String> jvmArgs, List<String> appArgs, Path logFile,
+                                   Duration startupTimeout) throws Exception {
+        int port = freePort();
+        int jmxPort = freePort();
+
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-Dcom.sun.management.jmxremote.port=" + jmxPort);
+        command.add("-Dcom.sun.management.jmxremote.rmi.port=" + jmxPort);
+        command.add("-Dcom.sun.management.jmxremote.host=127.0.0.1");
+        command.add("-Djava.rmi.server.hostname=127.0.0.1");
+        command.add("-Dcom.sun.management.jmxremote.authenticate=false");
+        command.add("-Dcom.sun.management.jmxremote.ssl=false");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("com.aiimage.backend.App");
+        command.add("--server.port=" + port);
+        command.addAll(appArgs);
+
+        Process process = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(logFile.toFile())
+            .start();
+
+        try {
+            awaitHealthy(process, port, startupTimeout, logFile);
+            JMXServiceURL url = new JMXServiceURL(
+                "service:jmx:rmi:///jndi/rmi://127.0.0.1:" + jmxPort + "/jmxrmi");
+            return new AppProcess(process, port, JMXConnectorFactory.connect(url));
+        } catch (Exception e) {
+            process.destroyForcibly();
+            throw e;
+        }
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + port;
+    }
+
+    public void startSampling() {
+        gcCountAtStart = gcCount();
+        gcTimeAtStart = gcTime();
+        sampler.scheduleAtFixedRate(this::sample, 0, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Thread and heap figures over the sampling period
+     */
+    public synchronized Map<String, Object> summarize() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("threadsMax", threadsMax);
+        summary.put("threadsMean", threadSamples == 0 ? 0 : threadSum / threadSamples);
+        summary.put("threadsPeakSinceStart", safe(threads::getPeakThreadCount));
+        summary.put("heapUsedMeanMb", heapSamples == 0 ? 0 : heapUsedSum / heapSamples / (1024 * 1024));
+        summary.put("heapUsedMaxMb", heapUsedMax / (1024 * 1024));
+        summary.put("heapCommittedMaxMb", heapCommittedMax / (1024 * 1024));
+        summary.put("gcCount", gcCount() - gcCountAtStart);
+        summary.put("gcTimeMs", gcTime() - gcTimeAtStart);
+        return summary;
+    }
+
+    @Override
+    public void close() throws Exception {
+        sampler.shutdownNow();
+        try {
+            jmx.close();
+        } catch (IOException e) {
+            // App may already be gone
+        }
+        process.destroy();
+        if (!process.waitFor(15, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+        }
+    }
+
+    private synchronized void sample() {
+        try {
+            long used = memory.getHeapMemoryUsage().getUsed();
+            long committed = memory.getHeapMemoryUsage().getCommitted();
+            int live = threads.getThreadCount();
+
+            heapSamples++;
+            heapUsedSum += used;
+            heapUsedMax = Math.max(heapUsedMax, used);
+            heapCommittedMax = Math.max(heapCommittedMax, committed);
+            threadSamples++;
+            threadSum += live;
+            threadsMax = Math.max(threadsMax, live);
+        } catch (RuntimeException e) {
+            // A missed sample is not worth failing the run for
+        }
+    }
+
+    private long gcCount() {
+        return collectors.stream().mapToLong(collector -> safe(collector::getCollectionCount)).sum();
+    }
+
+    private long gcTime() {
+        return collectors.stream().mapToLong(collector -> safe(collector::getCollectionTime)).sum();
+    }
+
+    private static long safe(LongSupplier supplier) {
+        try {
+            return supplier.getAsLong();
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static void awaitHealthy(Process process, int port, Duration timeout, Path logFile) throws Exception {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/api/health"))
+            .timeout(Duration.ofSeconds(2))
+            .build();
+        long deadline = System.nanoTime() + timeout.toNanos();
+
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("App exited during startup, see " + logFile);
+            }
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("App did not become healthy within " + timeout + ", see " + logFile);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
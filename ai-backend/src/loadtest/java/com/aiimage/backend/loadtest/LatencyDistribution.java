@@ -0,0 +1,62 @@
+package com.aiimage.backend.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Simulated backend service time, parsed from specs such as:
+ *
+ *   fixed:2000             always 2000 ms
+ *   uniform:1500,3000      uniform between the bounds
+ *   normal:2000,300        mean and standard deviation, clamped at 0
+ *   lognormal:2000,0.25    median and sigma; long right tail like real GPU jobs
+ */
+public interface LatencyDistribution {
+
+    long sampleMillis();
+
+    static LatencyDistribution parse(String spec) {
+        String[] kindAndArgs = spec.trim().split(":", 2);
+        String kind = kindAndArgs[0].toLowerCase();
+        double[] args = kindAndArgs.length > 1 ? parseArgs(kindAndArgs[1]) : new double[0];
+
+        switch (kind) {
+            case "fixed": {
+                long millis = (long) arg(args, 0, spec);
+                return () -> millis;
+            }
+            case "uniform": {
+                long min = (long) arg(args, 0, spec);
+                long max = (long) arg(args, 1, spec);
+                return () -> min >= max ? min : ThreadLocalRandom.current().nextLong(min, max + 1);
+            }
+            case "normal": {
+                double mean = arg(args, 0, spec);
+                double stddev = arg(args, 1, spec);
+                return () -> Math.max(0, Math.round(mean + stddev * ThreadLocalRandom.current().nextGaussian()));
+            }
+            case "lognormal": {
+                double mu = Math.log(arg(args, 0, spec));
+                double sigma = arg(args, 1, spec);
+                return () -> Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+            }
+            default:
+                throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        }
+    }
+
+    private static double[] parseArgs(String args) {
+        String[] parts = args.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Double.parseDouble(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static double arg(double[] args, int index, String spec) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing parameter " + (index + 1) + " in " + spec);
+        }
+        return args[index];
+    }
+}
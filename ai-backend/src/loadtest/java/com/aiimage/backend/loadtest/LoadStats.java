@@ -0,0 +1,137 @@
+package com.aiimage.backend.loadtest;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcomes and latencies per request type. Latencies of every request are kept
+ * (a few MB for a million requests) so percentiles are exact.
+ */
+public final class LoadStats {
+
+    public enum Outcome {
+        /** Real result from the backend */
+        OK,
+        /** 200/206 without a real result: placeholder image, or image without a mesh */
+        DEGRADED,
+        /** 429 or 503: the backend shed load */
+        REJECTED,
+        /** Any other status, timeout or connection failure */
+        ERROR
+    }
+
+    private final Map<PromptTrace.Type, Series> series = new EnumMap<>(PromptTrace.Type.class);
+
+    public LoadStats() {
+        for (PromptTrace.Type type : PromptTrace.Type.values()) {
+            series.put(type, new Series());
+        }
+    }
+
+    public void record(PromptTrace.Type type, Outcome outcome, long latencyMicros) {
+        series.get(type).record(outcome, latencyMicros);
+    }
+
+    public long completed() {
+        return series.values().stream().mapToLong(Series::count).sum();
+    }
+
+    /**
+     * Summary per request type; latencies in milliseconds over all outcomes, and
+     * separately over OK requests only
+     */
+    public Map<String, Object> summarize(double elapsedSeconds) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        series.forEach((type, s) -> {
+            if (s.count() > 0) {
+                summary.put(type.name().toLowerCase(), s.summarize(elapsedSeconds));
+            }
+        });
+        return summary;
+    }
+
+    private static final class Series {
+
+        private final Map<Outcome, Long> outcomes = new EnumMap<>(Outcome.class);
+        private long[] latencies = new long[1024];
+        private long[] okLatencies = new long[1024];
+        private int size;
+        private int okSize;
+
+        synchronized void record(Outcome outcome, long latencyMicros) {
+            outcomes.merge(outcome, 1L, Long::sum);
+
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = latencyMicros;
+
+            if (outcome == Outcome.OK) {
+                if (okSize == okLatencies.length) {
+                    okLatencies = Arrays.copyOf(okLatencies, okSize * 2);
+                }
+                okLatencies[okSize++] = latencyMicros;
+            }
+        }
+
+        synchronized long count() {
+            return size;
+        }
+
+        synchronized Map<String, Object> summarize(double elapsedSeconds) {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("requests", size);
+            summary.put("throughputPerSec", round(okSize / elapsedSeconds));
+
+            Map<String, Object> outcomeSummary = new LinkedHashMap<>();
+            for (Outcome outcome : Outcome.values()) {
+                long count = outcomes.getOrDefault(outcome, 0L);
+                outcomeSummary.put(outcome.name().toLowerCase(), count);
+            }
+            summary.put("outcomes", outcomeSummary);
+            summary.put("errorRate", round(size == 0 ? 0 : (double) (size - okSize) / size));
+            summary.put("latencyMs", percentiles(latencies, size));
+            summary.put("okLatencyMs", percentiles(okLatencies, okSize));
+            return summary;
+        }
+
+        private static Map<String, Object> percentiles(long[] values, int count) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            if (count == 0) {
+                return result;
+            }
+
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            long sum = 0;
+            for (long value : sorted) {
+                sum += value;
+            }
+
+            result.put("mean", round(sum / 1000.0 / count));
+            result.put("p50", at(sorted, 0.50));
+            result.put("p95", at(sorted, 0.95));
+            result.put("p99", at(sorted, 0.99));
+            result.put("max", round(sorted[count - 1] / 1000.0));
+            return result;
+        }
+
+        /**
+         * Nearest-rank percentile
+         */
+        private static double at(long[] sorted, double quantile) {
+            int rank = (int) Math.ceil(quantile * sorted.length);
+            return round(sorted[Math.max(0, rank - 1)] / 1000.0);
+        }
+
+        private static double round(double value) {
+            return Math.round(value * 100) / 100.0;
+        }
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
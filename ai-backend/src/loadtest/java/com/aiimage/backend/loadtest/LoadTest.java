@@ -0,0 +1,306 @@
+package com.aiimage.backend.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the backend with a prompt trace against simulated GPU backends and
+ * reports throughput, latency percentiles, error rates and the app's thread and
+ * heap usage. Run with:
+ *
+ *   mvn -Ploadtest test-compile exec:exec@loadtest -Dloadtest.args="--concurrency=16 --duration-s=120"
+ *
+ * Untimed traces are sent by --concurrency closed-loop workers for --duration-s
+ * (looping over the trace); timed traces are replayed open-loop at their offsets
+ * divided by --speed, and latency is measured from the scheduled send time so a
+ * stalled backend cannot hide queueing delay. Pass --target to drive an app that
+ * is already running; thread and heap figures are then not collected.
+ */
+public final class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("trace", "src/loadtest/resources/sample-trace.tsv");
+        DEFAULTS.put("mix-3d", "0.2");
+        DEFAULTS.put("concurrency", "8");
+        DEFAULTS.put("clients", "4");
+        DEFAULTS.put("duration-s", "60");
+        DEFAULTS.put("speed", "1.0");
+        DEFAULTS.put("unique-prompts", "false");
+        DEFAULTS.put("request-timeout-s", "600");
+        DEFAULTS.put("sd-latency", "lognormal:2000,0.25");
+        DEFAULTS.put("sd-failure-rate", "0");
+        DEFAULTS.put("sd-concurrency", "1");
+        DEFAULTS.put("triposr-latency", "lognormal:8000,0.3");
+        DEFAULTS.put("triposr-failure-rate", "0");
+        DEFAULTS.put("triposr-concurrency", "1");
+        DEFAULTS.put("image-size", "512");
+        DEFAULTS.put("mesh-kb", "2048");
+        DEFAULTS.put("app-jvm-args", "-Xmx1g");
+        DEFAULTS.put("app-args", "");
+        DEFAULTS.put("target", "");
+        DEFAULTS.put("report", "target/loadtest-report.json");
+        DEFAULTS.put("seed", "1");
+    }
+
+    private final Map<String, String> options;
+    private final LoadStats stats = new LoadStats();
+    private final AtomicLong promptCounter = new AtomicLong();
+    private final HttpClient http;
+    private final Duration requestTimeout;
+    private String baseUrl;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.requestTimeout = Duration.ofSeconds(Long.parseLong(options.get("request-timeout-s")));
+        this.http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newCachedThreadPool(daemon("loadtest-http")))
+            .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            String[] pair = arg.startsWith("--") ? arg.substring(2).split("=", 2) : new String[0];
+            if (pair.length != 2 || !DEFAULTS.containsKey(pair[0])) {
+                System.err.println("Unknown option " + arg + "; options and defaults:");
+                DEFAULTS.forEach((name, value) -> System.err.println("  --" + name + "=" + value));
+                System.exit(2);
+            }
+            options.put(pair[0], pair[1]);
+        }
+
+        new LoadTest(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        PromptTrace trace = PromptTrace.load(Path.of(options.get("trace")),
+            Double.parseDouble(options.get("mix-3d")), Long.parseLong(options.get("seed")));
+
+        if (!options.get("target").isBlank()) {
+            baseUrl = options.get("target");
+            report(trace, drive(trace), null, null);
+            return;
+        }
+
+        Path workDir = Files.createTempDirectory("loadtest");
+        Path appLog = Path.of("target", "loadtest-app.log").toAbsolutePath();
+        Files.createDirectories(appLog.getParent());
+
+        try (SimulatedBackends backends = new SimulatedBackends(
+                profile("sd"), profile("triposr"),
+                Integer.parseInt(options.get("image-size")), Integer.parseInt(options.get("mesh-kb")) * 1024)) {
+
+            List<String> appArgs = new ArrayList<>(List.of(
+                "--local.model.url=" + backends.stableDiffusionUrl(),
+                "--triposr.api.url=" + backends.tripoSRUrl(),
+                "--app.image.storage.path=" + workDir.resolve("images"),
+                "--app.model.storage.path=" + workDir.resolve("models"),
+                "--spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+                "--spring.jpa.hibernate.ddl-auto=create-drop",
+                "--logging.level.com.aiimage.backend=WARN",
+                "--logging.level.org.springframework.web=WARN"));
+            appArgs.addAll(split(options.get("app-args")));
+
+            System.out.println("Starting app, log: " + appLog);
+            try (AppProcess app = AppProcess.start(split(options.get("app-jvm-args")), appArgs, appLog,
+                    Duration.ofMinutes(2))) {
+                baseUrl = app.baseUrl();
+                app.startSampling();
+                double elapsed = drive(trace);
+                report(trace, elapsed, app.summarize(), backends.getCounters());
+            }
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    /**
+     * Sends the trace and returns the elapsed seconds
+     */
+    private double drive(PromptTrace trace) throws Exception {
+        long started = System.nanoTime();
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(daemon("loadtest-progress"));
+        progress.scheduleAtFixedRate(() -> System.out.printf("  %6.0fs  %d requests completed%n",
+            (System.nanoTime() - started) / 1e9, stats.completed()), 10, 10, TimeUnit.SECONDS);
+
+        try {
+            if (trace.isTimed()) {
+                replayTimed(trace);
+            } else {
+                runClosedLoop(trace);
+            }
+        } finally {
+            progress.shutdownNow();
+        }
+        return (System.nanoTime() - started) / 1e9;
+    }
+
+    private void replayTimed(PromptTrace trace) throws Exception {
+        double speed = Double.parseDouble(options.get("speed"));
+        int clients = Integer.parseInt(options.get("clients"));
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, daemon("loadtest-scheduler"));
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        long start = System.nanoTime();
+
+        System.out.printf("Replaying %d timed requests at %.2fx%n", trace.entries().size(), speed);
+        int index = 0;
+        for (PromptTrace.Entry entry : trace.entries()) {
+            long dueNanos = start + (long) (entry.offsetMs() * 1_000_000 / speed);
+            String apiKey = "loadtest-client-" + (index++ % clients);
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            pending.add(done);
+
+            scheduler.schedule(() -> send(entry, apiKey, dueNanos).whenComplete((ignored, error) -> done.complete(null)),
+                Math.max(0, dueNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+        scheduler.shutdownNow();
+    }
+
+    private void runClosedLoop(PromptTrace trace) throws Exception {
+        int concurrency = Integer.parseInt(options.get("concurrency"));
+        int clients = Integer.parseInt(options.get("clients"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration-s")));
+        AtomicLong next = new AtomicLong();
+        List<PromptTrace.Entry> entries = trace.entries();
+
+        System.out.printf("Running %d workers as %d clients for %ss over %d prompts%n",
+            concurrency, clients, options.get("duration-s"), entries.size());
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, daemon("loadtest-worker"));
+        for (int worker = 0; worker < concurrency; worker++) {
+            String apiKey = "loadtest-client-" + (worker % clients);
+            workers.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    PromptTrace.Entry entry = entries.get((int) (next.getAndIncrement() % entries.size()));
+                    send(entry, apiKey, System.nanoTime()).join();
+                }
+            });
+        }
+
+        workers.shutdown();
+        // In-flight requests finish after the deadline; they still count
+        workers.awaitTermination(requestTimeout.toSeconds() + 60, TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<Void> send(PromptTrace.Entry entry, String apiKey, long intendedStartNanos) {
+        String prompt = Boolean.parseBoolean(options.get("unique-prompts"))
+            ? entry.prompt() + " #" + promptCounter.incrementAndGet()
+            : entry.prompt();
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + entry.type().path()))
+            .timeout(requestTimeout)
+            .header("Content-Type", "application/json")
+            .header("X-API-Key", apiKey)
+            .POST(HttpRequest.BodyPublishers.ofString("{\"prompt\": \"" + prompt.replace("\"", "'") + "\"}"))
+            .build();
+
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+            .handle((response, error) -> {
+                long latencyMicros = (System.nanoTime() - intendedStartNanos) / 1000;
+                stats.record(entry.type(), classify(entry.type(), response, error), latencyMicros);
+                return null;
+            });
+    }
+
+    private static LoadStats.Outcome classify(PromptTrace.Type type, HttpResponse<String> response, Throwable error) {
+        if (error != null) {
+            return LoadStats.Outcome.ERROR;
+        }
+
+        int status = response.statusCode();
+        if (status == 429 || status == 503) {
+            return LoadStats.Outcome.REJECTED;
+        }
+        if (type == PromptTrace.Type.IMAGE && status == 200) {
+            // Anything but a stored image is the placeholder fallback
+            return response.body().contains("/api/images/") ? LoadStats.Outcome.OK : LoadStats.Outcome.DEGRADED;
+        }
+        if (type == PromptTrace.Type.MODEL_3D && (status == 200 || status == 206)) {
+            return status == 200 ? LoadStats.Outcome.OK : LoadStats.Outcome.DEGRADED;
+        }
+        return LoadStats.Outcome.ERROR;
+    }
+
+    private void report(PromptTrace trace, double elapsedSeconds, Map<String, Object> app,
+                        Map<String, Long> backends) throws Exception {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("elapsedSeconds", Math.round(elapsedSeconds * 10) / 10.0);
+        report.put("mode", trace.isTimed() ? "timed-replay" : "closed-loop");
+        report.put("options", new HashMap<>(options));
+        report.put("requests", stats.summarize(elapsedSeconds));
+        if (app != null) {
+            report.put("app", app);
+        }
+        if (backends != null) {
+            report.put("simulatedBackends", backends);
+        }
+
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        String json = mapper.writeValueAsString(report);
+        System.out.println(json);
+
+        Path reportFile = Path.of(options.get("report"));
+        if (reportFile.getParent() != null) {
+            Files.createDirectories(reportFile.getParent());
+        }
+        Files.writeString(reportFile, json);
+        System.out.println("Report written to " + reportFile.toAbsolutePath());
+    }
+
+    private SimulatedBackends.Profile profile(String backend) {
+        return new SimulatedBackends.Profile(
+            LatencyDistribution.parse(options.get(backend + "-latency")),
+            Double.parseDouble(options.get(backend + "-failure-rate")),
+            Integer.parseInt(options.get(backend + "-concurrency")));
+    }
+
+    private static List<String> split(String value) {
+        return value.isBlank() ? List.of() : Arrays.asList(value.trim().split("\\s+"));
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicLong counter = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (Exception e) {
+            System.err.println("Could not remove " + dir + ": " + e.getMessage());
+        }
+    }
+}
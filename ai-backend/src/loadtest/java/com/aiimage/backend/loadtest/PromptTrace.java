@@ -0,0 +1,107 @@
+package com.aiimage.backend.loadtest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Requests to replay. Trace files are tab-separated, one request per line:
+ *
+ *   offsetMs  type  prompt     timed replay (type is image or 3d)
+ *   type  prompt               untimed; workers send as fast as they can
+ *   prompt                     untimed, type drawn from the 3D mix
+ *
+ * Blank lines and lines starting with # are ignored. A trace is timed only if
+ * every entry has an offset.
+ */
+public final class PromptTrace {
+
+    public enum Type {
+        IMAGE("/api/generate"),
+        MODEL_3D("/api/3d/generate-from-text");
+
+        private final String path;
+
+        Type(String path) {
+            this.path = path;
+        }
+
+        public String path() {
+            return path;
+        }
+
+        static Type parse(String value) {
+            return switch (value.trim().toLowerCase()) {
+                case "image" -> IMAGE;
+                case "3d" -> MODEL_3D;
+                default -> null;
+            };
+        }
+    }
+
+    public record Entry(long offsetMs, Type type, String prompt) {}
+
+    private final List<Entry> entries;
+    private final boolean timed;
+
+    private PromptTrace(List<Entry> entries, boolean timed) {
+        this.entries = List.copyOf(entries);
+        this.timed = timed;
+    }
+
+    public static PromptTrace load(Path file, double mix3d, long seed) throws IOException {
+        Random random = new Random(seed);
+        List<Entry> entries = new ArrayList<>();
+        boolean timed = true;
+
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = line.split("\t");
+            Entry entry;
+            if (fields.length >= 3 && isNumber(fields[0]) && Type.parse(fields[1]) != null) {
+                entry = new Entry(Long.parseLong(fields[0].trim()), Type.parse(fields[1]), fields[2].trim());
+            } else if (fields.length >= 2 && Type.parse(fields[0]) != null) {
+                entry = new Entry(-1, Type.parse(fields[0]), fields[1].trim());
+                timed = false;
+            } else {
+                Type type = random.nextDouble() < mix3d ? Type.MODEL_3D : Type.IMAGE;
+                entry = new Entry(-1, type, line.trim());
+                timed = false;
+            }
+            entries.add(entry);
+        }
+
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("Trace " + file + " has no requests");
+        }
+        return new PromptTrace(entries, timed);
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    public boolean isTimed() {
+        return timed;
+    }
+
+    private static boolean isNumber(String value) {
+        String trimmed = value.trim();
+        if (trimmed.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < trimmed.length(); i++) {
+            if (!Character.isDigit(trimmed.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
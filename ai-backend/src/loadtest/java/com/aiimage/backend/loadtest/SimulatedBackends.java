@@ -0,0 +1,242 @@
+package com.aiimage.backend.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-ins for the A1111 and TripoSR HTTP APIs with configurable service time,
+ * failure rate and GPU concurrency. Requests beyond the concurrency limit queue
+ * inside the stub, the way a single-GPU server serializes jobs, so queueing shows
+ * up in latency just as it would in production.
+ */
+public final class SimulatedBackends implements AutoCloseable {
+
+    private static final Pattern BATCH_SIZE = Pattern.compile("\"batch_size\"\\s*:\\s*(\\d+)");
+
+    /**
+     * Behaviour of one simulated GPU service
+     */
+    public record Profile(LatencyDistribution latency, double failureRate, int concurrency) {}
+
+    private final HttpServer stableDiffusion;
+    private final HttpServer tripoSR;
+    private final ExecutorService executor;
+    private final Profile sdProfile;
+    private final Profile tripoSRProfile;
+    private final Semaphore sdSlots;
+    private final Semaphore tripoSRSlots;
+    private final String encodedImage;
+    private final byte[] mesh;
+    private final Map<Integer, byte[]> txt2imgResponses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong();
+
+    public SimulatedBackends(Profile sdProfile, Profile tripoSRProfile, int imageSize, int meshBytes)
+            throws IOException {
+        this.sdProfile = sdProfile;
+        this.tripoSRProfile = tripoSRProfile;
+        this.sdSlots = new Semaphore(sdProfile.concurrency(), true);
+        this.tripoSRSlots = new Semaphore(tripoSRProfile.concurrency(), true);
+        this.encodedImage = Base64.getEncoder().encodeToString(noisePng(imageSize));
+        this.mesh = objMesh(meshBytes);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "simulated-backend");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.stableDiffusion = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        stableDiffusion.createContext("/sdapi/v1/txt2img", this::txt2img);
+        stableDiffusion.createContext("/sdapi/v1/options", exchange -> respond(exchange, 200,
+            "{\"sd_model_checkpoint\": \"simulated\"}"));
+        stableDiffusion.createContext("/sdapi/v1/progress", exchange -> respond(exchange, 200,
+            "{\"progress\": 0.5, \"eta_relative\": 1.0, \"state\": {\"job_count\": "
+                + (sdProfile.concurrency() - sdSlots.availablePermits() + sdSlots.getQueueLength()) + "}}"));
+        stableDiffusion.createContext("/sdapi/v1/interrupt", exchange -> {
+            count("sd.interrupt");
+            respond(exchange, 200, "{}");
+        });
+        stableDiffusion.setExecutor(executor);
+
+        this.tripoSR = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        tripoSR.createContext("/generate-3d", this::generate3d);
+        tripoSR.createContext("/download/", this::download);
+        tripoSR.createContext("/health", exchange -> respond(exchange, 200, "{\"status\": \"ok\"}"));
+        tripoSR.createContext("/list-models", exchange -> respond(exchange, 200, "{\"models\": [\"simulated\"]}"));
+        tripoSR.setExecutor(executor);
+
+        stableDiffusion.start();
+        tripoSR.start();
+    }
+
+    public String stableDiffusionUrl() {
+        return "http://127.0.0.1:" + stableDiffusion.getAddress().getPort();
+    }
+
+    public String tripoSRUrl() {
+        return "http://127.0.0.1:" + tripoSR.getAddress().getPort();
+    }
+
+    /**
+     * Calls and injected failures per endpoint
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        counters.entrySet().stream()
+            .sorted(Map.Entry.comparingByKey())
+            .forEach(entry -> snapshot.put(entry.getKey(), entry.getValue().get()));
+        return snapshot;
+    }
+
+    @Override
+    public void close() {
+        stableDiffusion.stop(0);
+        tripoSR.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void txt2img(HttpExchange exchange) throws IOException {
+        String request = new String(readBody(exchange), StandardCharsets.UTF_8);
+        Matcher matcher = BATCH_SIZE.matcher(request);
+        int batchSize = matcher.find() ? Integer.parseInt(matcher.group(1)) : 1;
+
+        count("sd.txt2img");
+        if (!simulateWork(sdSlots, sdProfile)) {
+            count("sd.txt2img.failed");
+            respond(exchange, 500, "{\"error\": \"OutOfMemoryError\", \"detail\": \"simulated failure\"}");
+            return;
+        }
+        respond(exchange, 200, txt2imgResponses.computeIfAbsent(batchSize, this::txt2imgResponse));
+    }
+
+    private void generate3d(HttpExchange exchange) throws IOException {
+        readBody(exchange);
+
+        count("triposr.generate");
+        if (!simulateWork(tripoSRSlots, tripoSRProfile)) {
+            count("triposr.generate.failed");
+            respond(exchange, 500, "{\"success\": false, \"error\": \"simulated failure\"}");
+            return;
+        }
+
+        String requestId = "sim" + requestIds.incrementAndGet();
+        respond(exchange, 200, "{\"success\": true, \"request_id\": \"" + requestId + "\","
+            + " \"files\": {\"obj\": \"/download/" + requestId + "/mesh.obj\"}}");
+    }
+
+    private void download(HttpExchange exchange) throws IOException {
+        count("triposr.download");
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(200, mesh.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(mesh);
+        }
+    }
+
+    /**
+     * Waits for a GPU slot, then for the sampled service time. Returns false when
+     * this call should fail; failures take half the service time, like a job that
+     * dies part way through.
+     */
+    private static boolean simulateWork(Semaphore slots, Profile profile) {
+        boolean fail = ThreadLocalRandom.current().nextDouble() < profile.failureRate();
+        long serviceMs = profile.latency().sampleMillis();
+
+        try {
+            slots.acquire();
+            try {
+                Thread.sleep(fail ? serviceMs / 2 : serviceMs);
+            } finally {
+                slots.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !fail;
+    }
+
+    private byte[] txt2imgResponse(int batchSize) {
+        StringBuilder body = new StringBuilder(encodedImage.length() * batchSize + 256).append("{\"images\":[");
+        for (int i = 0; i < batchSize; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append('"').append(encodedImage).append('"');
+        }
+        body.append("],\"parameters\":{},\"info\":\"{}\"}");
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void count(String name) {
+        counters.computeIfAbsent(name, key -> new AtomicLong()).incrementAndGet();
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        respond(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Noisy gradient PNG, which compresses about as poorly as a real render
+     */
+    private static byte[] noisePng(int size) throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int r = (x * 255 / size + random.nextInt(32)) & 0xff;
+                int g = (y * 255 / size + random.nextInt(32)) & 0xff;
+                int b = ((x + y) * 127 / size + random.nextInt(32)) & 0xff;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static byte[] objMesh(int bytes) {
+        StringBuilder obj = new StringBuilder(bytes + 64);
+        Random random = new Random(7);
+        while (obj.length() < bytes) {
+            obj.append(String.format("v %.5f %.5f %.5f%n", random.nextDouble(), random.nextDouble(), random.nextDouble()));
+        }
+        return obj.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
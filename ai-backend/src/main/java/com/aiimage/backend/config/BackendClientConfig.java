@@ -0,0 +1,259 @@
+package com.aiimage.backend.config;
+
+import com.aiimage.backend.service.CancellationToken;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared HTTP clients for the model backends. Each backend gets its own
+ * connection pool with persistent connections and connect/read/total timeouts
+ * from app.http.{sd,triposr}.*, so a hung server cannot pin threads forever.
+ */
+@Configuration
+public class BackendClientConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackendClientConfig.class);
+
+    private final ScheduledThreadPoolExecutor deadlineScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "backend-deadlines");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    {
+        // Almost every deadline is dropped when its call completes
+        deadlineScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @Bean(name = "stableDiffusionRestTemplate")
+    public RestTemplate stableDiffusionRestTemplate(Environment environment) {
+        return createRestTemplate("sd", environment, 180000L, 300000L, true);
+    }
+
+    @Bean(name = "tripoSRRestTemplate")
+    public RestTemplate tripoSRRestTemplate(Environment environment) {
+        return createRestTemplate("triposr", environment, 180000L, 300000L, true);
+    }
+
+    /**
+     * Short-timeout client for background health probes, kept separate so probes
+     * never wait behind generation calls for a pooled connection
+     */
+    @Bean(name = "healthCheckRestTemplate")
+    public RestTemplate healthCheckRestTemplate(Environment environment) {
+        return createRestTemplate("health", environment, 3000L, 5000L, false);
+    }
+
+    private RestTemplate createRestTemplate(String backend, Environment environment,
+                                            long defaultReadTimeoutMs, long defaultTotalTimeoutMs,
+                                            boolean cancellable) {
+        String prefix = "app.http." + backend + ".";
+        long connectTimeoutMs = environment.getProperty(prefix + "connect-timeout-ms", Long.class, 5000L);
+        long readTimeoutMs = environment.getProperty(prefix + "read-timeout-ms", Long.class, defaultReadTimeoutMs);
+        long totalTimeoutMs = environment.getProperty(prefix + "total-timeout-ms", Long.class, defaultTotalTimeoutMs);
+        int maxPerRoute = environment.getProperty(prefix + "max-connections-per-route", Integer.class, 20);
+        int maxTotal = environment.getProperty(prefix + "max-connections-total", Integer.class, 50);
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+            .setMaxConnPerRoute(maxPerRoute)
+            .setMaxConnTotal(maxTotal)
+            .setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                .build())
+            .build();
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                // Waiting for a pooled connection counts against the connect budget
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                .build())
+            .evictExpiredConnections()
+            .evictIdleConnections(TimeValue.ofSeconds(30))
+            .build();
+
+        logger.info("HTTP client for {}: connect={}ms read={}ms total={}ms pool={}/{}",
+            backend, connectTimeoutMs, readTimeoutMs, totalTimeoutMs, maxPerRoute, maxTotal);
+
+        return new RestTemplate(new DeadlineRequestFactory(httpClient, totalTimeoutMs, deadlineScheduler, cancellable));
+    }
+
+    /**
+     * Enforces the total timeout by cancelling the underlying request once its
+     * deadline passes. The deadline timer is dropped when the call fails or its
+     * response is closed. Generation clients also cancel the request when the
+     * calling thread's CancellationToken is cancelled. Health probes don't, so
+     * the SD interrupt sent on cancel is not itself cancelled.
+     */
+    private static class DeadlineRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+        private final long totalTimeoutMs;
+        private final ScheduledThreadPoolExecutor scheduler;
+        private final boolean followCancellation;
+
+        // Hands the request built inside super.createRequest back to createRequest
+        private final ThreadLocal<HttpUriRequestBase> created = new ThreadLocal<>();
+
+        DeadlineRequestFactory(CloseableHttpClient httpClient, long totalTimeoutMs,
+                               ScheduledThreadPoolExecutor scheduler, boolean followCancellation) {
+            super(httpClient);
+            this.totalTimeoutMs = totalTimeoutMs;
+            this.scheduler = scheduler;
+            this.followCancellation = followCancellation;
+        }
+
+        @Override
+        public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+            ClientHttpRequest request;
+            HttpUriRequestBase cancellable;
+            try {
+                request = super.createRequest(uri, httpMethod);
+                cancellable = created.get();
+            } finally {
+                created.remove();
+            }
+            if (cancellable == null) {
+                return request;
+            }
+
+            CancellationToken token = CancellationToken.current();
+            if (followCancellation && token != null) {
+                token.onCancel(cancellable::cancel);
+            }
+            if (totalTimeoutMs <= 0) {
+                return request;
+            }
+            ScheduledFuture<?> deadline = scheduler.schedule(cancellable::cancel, totalTimeoutMs, TimeUnit.MILLISECONDS);
+            return new DeadlineRequest(request, deadline);
+        }
+
+        @Override
+        protected void postProcessHttpRequest(ClassicHttpRequest request) {
+            if (request instanceof HttpUriRequestBase cancellable) {
+                created.set(cancellable);
+            }
+        }
+    }
+
+    /**
+     * Passes everything through to the HttpComponents request, including
+     * streaming bodies, and drops the deadline once the call is over
+     */
+    private static class DeadlineRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+        private final ClientHttpRequest delegate;
+        private final ScheduledFuture<?> deadline;
+
+        DeadlineRequest(ClientHttpRequest delegate, ScheduledFuture<?> deadline) {
+            this.delegate = delegate;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            try {
+                return new DeadlineResponse(delegate.execute(), deadline);
+            } catch (IOException | RuntimeException e) {
+                deadline.cancel(false);
+                throw e;
+            }
+        }
+
+        @Override
+        public void setBody(Body body) {
+            ((StreamingHttpOutputMessage) delegate).setBody(body);
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return delegate.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return delegate.getURI();
+        }
+    }
+
+    private static class DeadlineResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse delegate;
+        private final ScheduledFuture<?> deadline;
+
+        DeadlineResponse(ClientHttpResponse delegate, ScheduledFuture<?> deadline) {
+            this.delegate = delegate;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                deadline.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.aiimage.backend.config;
+
+import com.aiimage.backend.service.BackendLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class BackendLimiterConfig {
+
+    /**
+     * Bounds txt2img calls across the whole SD pool; keep it at or below
+     * app.http.sd.max-connections-per-route times the number of nodes
+     */
+    @Bean(name = "stableDiffusionLimiter")
+    public BackendLimiter stableDiffusionLimiter(
+            @Value("${app.backend.sd.max-concurrent:20}") int maxConcurrent,
+            @Value("${app.backend.sd.max-waiting:1000}") int maxWaiting) {
+        return new BackendLimiter("Stable Diffusion", maxConcurrent, maxWaiting);
+    }
+
+    @Bean(name = "tripoSRLimiter")
+    public BackendLimiter tripoSRLimiter(
+            @Value("${app.backend.triposr.max-concurrent:10}") int maxConcurrent,
+            @Value("${app.backend.triposr.max-waiting:1000}") int maxWaiting) {
+        return new BackendLimiter("TripoSR", maxConcurrent, maxWaiting);
+    }
+}
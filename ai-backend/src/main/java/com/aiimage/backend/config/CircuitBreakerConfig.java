@@ -0,0 +1,28 @@
+package com.aiimage.backend.config;
+
+import com.aiimage.backend.service.CircuitBreaker;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class CircuitBreakerConfig {
+
+    /**
+     * Guards the Stable Diffusion pool as a whole; individual bad nodes are
+     * already ejected by the pool itself
+     */
+    @Bean(name = "stableDiffusionCircuitBreaker")
+    public CircuitBreaker stableDiffusionCircuitBreaker(
+            @Value("${app.circuit.sd.failure-threshold:5}") int failureThreshold,
+            @Value("${app.circuit.sd.open-ms:30000}") long openMs) {
+        return new CircuitBreaker("Stable Diffusion", failureThreshold, openMs);
+    }
+
+    @Bean(name = "tripoSRCircuitBreaker")
+    public CircuitBreaker tripoSRCircuitBreaker(
+            @Value("${app.circuit.triposr.failure-threshold:3}") int failureThreshold,
+            @Value("${app.circuit.triposr.open-ms:30000}") long openMs) {
+        return new CircuitBreaker("TripoSR", failureThreshold, openMs);
+    }
+}
@@ -0,0 +1,40 @@
+package com.aiimage.backend.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class GenerationExecutorConfig {
+
+    /**
+     * Dedicated worker pool for generation jobs, sized by app.max.concurrent.requests
+     * so backend throughput is bounded by the GPU rather than by servlet threads.
+     * With spring.threads.virtual.enabled on Java 21 each job gets its own virtual
+     * thread instead; the scheduler permit and the backend limiters bound the work.
+     */
+    @Bean(name = "generationExecutor")
+    public AsyncTaskExecutor generationExecutor(
+            @Value("${app.max.concurrent.requests:10}") int maxConcurrentRequests,
+            @Value("${app.jobs.queue-capacity:100}") int queueCapacity,
+            Environment environment) {
+
+        if (Threading.VIRTUAL.isActive(environment)) {
+            return new VirtualThreadTaskExecutor("generation-");
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxConcurrentRequests);
+        executor.setMaxPoolSize(maxConcurrentRequests);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("generation-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,40 @@
+package com.aiimage.backend.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+import org.springframework.web.servlet.DispatcherServlet;
+
+import java.util.Set;
+
+@Configuration
+public class MultipartConfig {
+
+    /**
+     * Endpoints that read their multipart body themselves, straight off the
+     * request stream, when app.triposr.upload.streaming is on
+     */
+    private static final Set<String> STREAMING_PATHS = Set.of("/api/3d/generate");
+
+    /**
+     * The standard resolver, except that streaming endpoints are left unparsed so
+     * the container never buffers or spools their uploads
+     */
+    @Bean(name = DispatcherServlet.MULTIPART_RESOLVER_BEAN_NAME)
+    public StandardServletMultipartResolver multipartResolver(
+            @Value("${app.triposr.upload.streaming:true}") boolean streaming,
+            @Value("${spring.servlet.multipart.resolve-lazily:false}") boolean resolveLazily) {
+
+        StandardServletMultipartResolver resolver = new StandardServletMultipartResolver() {
+            @Override
+            public boolean isMultipart(HttpServletRequest request) {
+                String path = request.getRequestURI().substring(request.getContextPath().length());
+                return super.isMultipart(request) && !(streaming && STREAMING_PATHS.contains(path));
+            }
+        };
+        resolver.setResolveLazily(resolveLazily);
+        return resolver;
+    }
+}
@@ -0,0 +1,53 @@
+package com.aiimage.backend.controller;
+
+import com.aiimage.backend.model.GenerationRecord;
+import com.aiimage.backend.service.GenerationHistoryService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/history")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:3001"})
+public class GenerationHistoryController {
+
+    private static final int MAX_LIMIT = 100;
+
+    @Autowired
+    private GenerationHistoryService generationHistoryService;
+
+    /**
+     * Lists finished generations newest first. Pass the returned nextCursor as
+     * cursor to get the following page; status filters to COMPLETED or FAILED.
+     */
+    @GetMapping
+    public ResponseEntity<Object> listHistory(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) GenerationRecord.Status status,
+            @RequestParam(defaultValue = "20") int limit) {
+
+        int pageSize = Math.min(Math.max(limit, 1), MAX_LIMIT);
+
+        try {
+            return ResponseEntity.ok(generationHistoryService.getPage(cursor, status, pageSize));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid cursor"));
+        }
+    }
+
+    /**
+     * Generations for a prompt, matched by the hash of its normalized text
+     */
+    @GetMapping("/by-prompt")
+    public ResponseEntity<Object> findByPrompt(
+            @RequestParam String prompt,
+            @RequestParam(defaultValue = "20") int limit) {
+
+        if (prompt.trim().isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "No prompt provided"));
+        }
+        return ResponseEntity.ok(generationHistoryService.findByPrompt(prompt, Math.min(Math.max(limit, 1), MAX_LIMIT)));
+    }
+}
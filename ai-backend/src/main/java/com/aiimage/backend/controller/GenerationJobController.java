@@ -0,0 +1,173 @@
+package com.aiimage.backend.controller;
+
+import com.aiimage.backend.dto.GenerationJobResponse;
+import com.aiimage.backend.service.BackendLimiter;
+import com.aiimage.backend.service.CircuitBreaker;
+import com.aiimage.backend.service.DerivedImageService;
+import com.aiimage.backend.service.GenerationJob;
+import com.aiimage.backend.service.GenerationHistoryService;
+import com.aiimage.backend.service.GenerationJobService;
+import com.aiimage.backend.service.GenerationProgressService;
+import com.aiimage.backend.service.GenerationScheduler;
+import com.aiimage.backend.service.GenerationResultCache;
+import com.aiimage.backend.service.ImageRetentionJob;
+import com.aiimage.backend.service.PromptRuleEngine;
+import com.aiimage.backend.service.StableDiffusionPool;
+import com.aiimage.backend.service.TextTo3dPipeline;
+import com.aiimage.backend.service.Txt2ImgBatcher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/jobs")
+@CrossOrigin(origins = {"http://localhost:3000", "http://localhost:3001"})
+public class GenerationJobController {
+
+    private static final long MAX_WAIT_MS = 60000;
+
+    @Autowired
+    private GenerationJobService generationJobService;
+
+    @Autowired
+    private GenerationProgressService generationProgressService;
+
+    @Autowired
+    private GenerationScheduler generationScheduler;
+
+    @Autowired
+    private GenerationHistoryService generationHistoryService;
+
+    @Autowired
+    private GenerationResultCache resultCache;
+
+    @Autowired
+    private Txt2ImgBatcher txt2ImgBatcher;
+
+    @Autowired
+    private TextTo3dPipeline textTo3dPipeline;
+
+    @Autowired
+    private StableDiffusionPool stableDiffusionPool;
+
+    @Autowired
+    private ImageRetentionJob imageRetentionJob;
+
+    @Autowired
+    private DerivedImageService derivedImageService;
+
+    @Autowired
+    private PromptRuleEngine promptRuleEngine;
+
+    @Autowired
+    @Qualifier("stableDiffusionCircuitBreaker")
+    private CircuitBreaker stableDiffusionCircuitBreaker;
+
+    @Autowired
+    @Qualifier("tripoSRCircuitBreaker")
+    private CircuitBreaker tripoSRCircuitBreaker;
+
+    @Autowired
+    @Qualifier("stableDiffusionLimiter")
+    private BackendLimiter stableDiffusionLimiter;
+
+    @Autowired
+    @Qualifier("tripoSRLimiter")
+    private BackendLimiter tripoSRLimiter;
+
+    /**
+     * Returns the job status; with waitMs > 0 the request is held (without blocking
+     * a servlet thread) until the job finishes or the wait elapses. Asking for a
+     * deferred job starts it.
+     */
+    @GetMapping("/{jobId}")
+    public DeferredResult<ResponseEntity<GenerationJobResponse>> getJob(
+            @PathVariable String jobId,
+            @RequestParam(defaultValue = "0") long waitMs) {
+
+        GenerationJob job = generationJobService.getJob(jobId);
+        long timeout = Math.min(Math.max(waitMs, 0), MAX_WAIT_MS);
+
+        DeferredResult<ResponseEntity<GenerationJobResponse>> deferred = new DeferredResult<>(
+            timeout > 0 ? timeout : null);
+
+        if (job == null) {
+            deferred.setResult(ResponseEntity.notFound().build());
+            return deferred;
+        }
+        generationJobService.claim(job);
+
+        if (timeout == 0 || job.isFinished()) {
+            deferred.setResult(ResponseEntity.ok(GenerationJobResponse.from(job)));
+            return deferred;
+        }
+
+        deferred.onTimeout(() -> deferred.setResult(ResponseEntity.ok(GenerationJobResponse.from(job))));
+        job.getFuture().whenComplete((result, error) ->
+            deferred.setResult(ResponseEntity.ok(GenerationJobResponse.from(job))));
+
+        return deferred;
+    }
+
+    /**
+     * Streams "progress" events (status, queue position, percent, ETA) until a
+     * final "complete" event carrying the same body as GET /api/jobs/{jobId}.
+     * Subscribing to a deferred job starts it.
+     */
+    @GetMapping(value = "/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamJobEvents(@PathVariable String jobId) {
+        GenerationJob job = generationJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        generationJobService.claim(job);
+        return ResponseEntity.ok(generationProgressService.subscribe(job));
+    }
+
+    /**
+     * Cancels a job that hasn't finished: it leaves the queue, or its render and
+     * 3D conversion are stopped. Returns the job as it stands afterwards.
+     */
+    @PostMapping("/{jobId}/cancel")
+    public ResponseEntity<GenerationJobResponse> cancelJob(@PathVariable String jobId) {
+        GenerationJob job = generationJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        generationJobService.cancel(job);
+        return ResponseEntity.ok(GenerationJobResponse.from(job));
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queued", generationJobService.getQueueDepth());
+        stats.put("running", generationJobService.getActiveCount());
+        stats.put("deferred", generationJobService.getDeferredCount());
+        stats.put("abandoned", generationJobService.getAbandonedCount());
+        stats.put("scheduler", generationScheduler.getStats());
+        stats.put("history", generationHistoryService.getStats());
+        stats.put("progressSubscribers", generationProgressService.getSubscriberCount());
+        stats.put("cache", resultCache.getStats());
+        stats.put("batching", txt2ImgBatcher.getStats());
+        stats.put("pipeline", textTo3dPipeline.getStats());
+        stats.put("backends", stableDiffusionPool.getStats());
+        stats.put("storage", imageRetentionJob.getStats());
+        stats.put("derivedImages", derivedImageService.getStats());
+        stats.put("promptRules", promptRuleEngine.getStats());
+        stats.put("circuits", Map.of(
+            "stableDiffusion", stableDiffusionCircuitBreaker.getStats(),
+            "tripoSR", tripoSRCircuitBreaker.getStats()));
+        stats.put("backendLimits", Map.of(
+            "stableDiffusion", stableDiffusionLimiter.getStats(),
+            "tripoSR", tripoSRLimiter.getStats()));
+        return ResponseEntity.ok(stats);
+    }
+}
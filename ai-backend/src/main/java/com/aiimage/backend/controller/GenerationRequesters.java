@@ -0,0 +1,60 @@
+package com.aiimage.backend.controller;
+
+import com.aiimage.backend.service.GenerationRejectedException;
+import com.aiimage.backend.service.GenerationScheduler;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Maps HTTP requests onto scheduler identities. Clients are keyed by X-API-Key
+ * only when the key is one of app.scheduler.api-keys, otherwise by address, so
+ * a caller cannot take a fresh fair share by making up keys. Only callers with
+ * a valid key may pick their lane with "X-Priority: batch"; everyone else goes
+ * in the interactive lane.
+ */
+@Component
+class GenerationRequesters {
+
+    static final String API_KEY_HEADER = "X-API-Key";
+    static final String PRIORITY_HEADER = "X-Priority";
+
+    private final Set<String> apiKeys;
+
+    GenerationRequesters(@Value("${app.scheduler.api-keys:}") List<String> apiKeys) {
+        this.apiKeys = apiKeys.stream()
+            .map(String::trim)
+            .filter(key -> !key.isEmpty())
+            .collect(Collectors.toUnmodifiableSet());
+    }
+
+    GenerationScheduler.Requester from(HttpServletRequest request) {
+        String apiKey = request.getHeader(API_KEY_HEADER);
+        if (apiKey == null || !apiKeys.contains(apiKey.trim())) {
+            return new GenerationScheduler.Requester("addr:" + request.getRemoteAddr(),
+                GenerationScheduler.Lane.INTERACTIVE);
+        }
+
+        GenerationScheduler.Lane lane = "batch".equalsIgnoreCase(request.getHeader(PRIORITY_HEADER))
+            ? GenerationScheduler.Lane.BATCH
+            : GenerationScheduler.Lane.INTERACTIVE;
+
+        return new GenerationScheduler.Requester("key:" + apiKey.trim(), lane);
+    }
+
+    /**
+     * 429 with Retry-After for a request the scheduler would not queue
+     */
+    static <T> ResponseEntity<T> tooManyRequests(GenerationRejectedException e, T body) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+            .body(body);
+    }
+}
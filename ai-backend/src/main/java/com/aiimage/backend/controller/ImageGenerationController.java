@@ -2,17 +2,39 @@ package com.aiimage.backend.controller;
 
 import com.aiimage.backend.dto.GenerateImageRequest;
 import com.aiimage.backend.dto.GenerateImageResponse;
+import com.aiimage.backend.dto.GenerationJobResponse;
+import com.aiimage.backend.service.BackendHealthMonitor;
+import com.aiimage.backend.service.CancellationService;
+import com.aiimage.backend.service.CancellationToken;
+import com.aiimage.backend.service.DerivedImageService;
+import com.aiimage.backend.service.GenerationCancelledException;
+import com.aiimage.backend.service.GenerationJob;
+import com.aiimage.backend.service.GenerationJobService;
+import com.aiimage.backend.service.GenerationRejectedException;
+import com.aiimage.backend.service.GenerationScheduler;
+import com.aiimage.backend.service.ImageFileIndex;
 import com.aiimage.backend.service.ImageGenerationService;
+import com.aiimage.backend.service.ImageSpec;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
-import org.springframework.http.MediaType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 @RequestMapping("/api")
@@ -21,24 +43,106 @@ public class ImageGenerationController {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageGenerationController.class);
 
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    private static final String DEFAULT_MODEL = "default";
+    private static final int MIN_IMAGE_SIDE = 64;
+    /** SD seeds are unsigned 32-bit */
+    private static final long MAX_SEED = 1L << 32;
+
     @Autowired
     private ImageGenerationService imageGenerationService;
 
+    @Autowired
+    private GenerationJobService generationJobService;
+
+    @Autowired
+    private ImageFileIndex imageFileIndex;
+
+    @Autowired
+    private DerivedImageService derivedImageService;
+
+    @Autowired
+    private BackendHealthMonitor backendHealthMonitor;
+
+    @Autowired
+    private GenerationRequesters generationRequesters;
+
+    @Autowired
+    private CancellationService cancellationService;
+
+    @Value("${app.image.max-side:1024}")
+    private int maxImageSide;
+
+    @Value("${app.progressive.preview-scale:2}")
+    private int previewScale;
+
+    @Value("${app.progressive.preview-steps:4}")
+    private int previewSteps;
+
+    @Value("${app.image.model-override.enabled:false}")
+    private boolean modelOverrideEnabled;
+
+    /**
+     * Renders synchronously. Cache hits answer at once and requests identical to
+     * a render in progress share it; anything else waits its turn with the
+     * generation scheduler, or gets 429 if the queue is full.
+     *
+     * With "progressive": true the response carries a cheap preview (fewer steps,
+     * lower resolution, same seed) and the id of a deferred job for the full
+     * render. That job only starts once the client polls it or subscribes to its
+     * events, so a client that stops at the preview costs nothing more.
+     *
+     * A client that disconnects while waiting has its queue place or render
+     * cancelled, if it asked for heartbeats (see CancellationService) or once
+     * the deadline passes.
+     */
     @PostMapping("/generate")
     public ResponseEntity<GenerateImageResponse> generateImage(
-            @RequestBody GenerateImageRequest request) {
+            @RequestBody GenerateImageRequest request, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) {
         
-        try {
-            String imageUrl = imageGenerationService.generateImage(request.getPrompt());
-            
-            GenerateImageResponse response = new GenerateImageResponse();
-            response.setImageUrl(imageUrl);
-            response.setPrompt(request.getPrompt());
-            response.setStatus("success");
-            response.setTimestamp(System.currentTimeMillis());
+        try (CancellationToken token = cancellationService.newToken();
+             CancellationService.ConnectionWatch watch =
+                 cancellationService.watchConnection(httpRequest, httpResponse, token);
+             CancellationToken.Scope scope = CancellationToken.bind(token)) {
+            ImageSpec spec = imageSpec(request);
+            GenerationScheduler.Requester requester = generationRequesters.from(httpRequest);
+            if (Boolean.TRUE.equals(request.getProgressive())) {
+                return generateProgressive(request, spec, requester);
+            }
+
+            String imageUrl = imageGenerationService.findCachedImage(request.getPrompt(), spec);
+            if (imageUrl == null) {
+                imageUrl = imageGenerationService.generateImage(request.getPrompt(), spec, requester);
+            }
             
+            GenerateImageResponse response = successResponse(request, spec, imageUrl);
             return ResponseEntity.ok(response);
             
+        } catch (IllegalArgumentException e) {
+            GenerateImageResponse errorResponse = new GenerateImageResponse();
+            errorResponse.setStatus("error");
+            errorResponse.setError(e.getMessage());
+            errorResponse.setTimestamp(System.currentTimeMillis());
+            return ResponseEntity.badRequest().body(errorResponse);
+
+        } catch (GenerationRejectedException e) {
+            GenerateImageResponse errorResponse = new GenerateImageResponse();
+            errorResponse.setStatus("error");
+            errorResponse.setError(e.getMessage());
+            errorResponse.setTimestamp(System.currentTimeMillis());
+            return GenerationRequesters.tooManyRequests(e, errorResponse);
+
+        } catch (GenerationCancelledException e) {
+            GenerateImageResponse errorResponse = new GenerateImageResponse();
+            errorResponse.setStatus("error");
+            errorResponse.setError(e.getMessage());
+            errorResponse.setTimestamp(System.currentTimeMillis());
+            // A client still listening was cut off by the deadline
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(errorResponse);
+
         } catch (Exception e) {
             GenerateImageResponse errorResponse = new GenerateImageResponse();
             errorResponse.setStatus("error");
@@ -49,9 +153,154 @@ public class ImageGenerationController {
         }
     }
 
+    @PostMapping("/generate/async")
+    public ResponseEntity<GenerationJobResponse> generateImageAsync(
+            @RequestBody GenerateImageRequest request, HttpServletRequest httpRequest) {
+
+        ImageSpec spec;
+        try {
+            spec = imageSpec(request);
+        } catch (IllegalArgumentException e) {
+            GenerationJobResponse errorResponse = new GenerationJobResponse();
+            errorResponse.setStatus("error");
+            errorResponse.setError(e.getMessage());
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+
+        // A cached render is handed back as a finished job without touching the scheduler
+        String cachedUrl = imageGenerationService.findCachedImage(request.getPrompt(), spec);
+        if (cachedUrl != null) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("imageUrl", cachedUrl);
+            GenerationJob job = generationJobService.completed("image", request.getPrompt(), result);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(GenerationJobResponse.from(job));
+        }
+
+        GenerationScheduler.Requester requester = generationRequesters.from(httpRequest);
+        GenerationJob job = generationJobService.submit("image", request.getPrompt(), () -> {
+            Map<String, Object> result = new HashMap<>();
+            result.put("imageUrl", imageGenerationService.generateImage(request.getPrompt(), spec, requester));
+            return result;
+        });
+
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(GenerationJobResponse.from(job));
+    }
+
+    /**
+     * Answers with the preview and defers the full render. A full render that is
+     * already cached is returned directly instead.
+     */
+    private ResponseEntity<GenerateImageResponse> generateProgressive(
+            GenerateImageRequest request, ImageSpec requestedSpec, GenerationScheduler.Requester requester)
+            throws Exception {
+
+        // The preview and the full render share a seed, so pick one here if the client didn't
+        ImageSpec spec = requestedSpec.seed() >= 0
+            ? requestedSpec : requestedSpec.withSeed(ThreadLocalRandom.current().nextLong(MAX_SEED));
+
+        String imageUrl = imageGenerationService.findCachedImage(request.getPrompt(), spec);
+        if (imageUrl != null) {
+            return ResponseEntity.ok(successResponse(request, spec, imageUrl));
+        }
+
+        ImageSpec previewSpec = spec.preview(previewScale, previewSteps);
+        String previewUrl = imageGenerationService.findCachedImage(request.getPrompt(), previewSpec);
+        if (previewUrl == null) {
+            previewUrl = imageGenerationService.generateImage(request.getPrompt(), previewSpec, requester);
+        }
+
+        GenerationJob refine = generationJobService.defer("image", request.getPrompt(), () -> {
+            Map<String, Object> result = new HashMap<>();
+            result.put("imageUrl", imageGenerationService.generateImage(request.getPrompt(), spec, requester));
+            result.put("seed", spec.seed());
+            return result;
+        });
+
+        GenerateImageResponse response = successResponse(request, spec, previewUrl);
+        response.setPreview(true);
+        response.setRefineJobId(refine.getId());
+        response.setRefineStatusUrl("/api/jobs/" + refine.getId());
+        return ResponseEntity.ok(response);
+    }
+
+    private GenerateImageResponse successResponse(GenerateImageRequest request, ImageSpec spec, String imageUrl) {
+        GenerateImageResponse response = new GenerateImageResponse();
+        response.setImageUrl(imageUrl);
+        response.setPrompt(request.getPrompt());
+        response.setStatus("success");
+        response.setTimestamp(System.currentTimeMillis());
+        response.setModel(spec.model() != null ? spec.model() : DEFAULT_MODEL);
+        response.setWidth(spec.width());
+        response.setHeight(spec.height());
+        response.setSeed(spec.seed() >= 0 ? spec.seed() : null);
+        response.setPreview(false);
+        return response;
+    }
+
+    /**
+     * Validates the request's size, model and seed. Sizes are rounded down to a
+     * multiple of 8, as SD requires.
+     *
+     * @throws IllegalArgumentException if the prompt is missing or a size is out of range
+     */
+    private ImageSpec imageSpec(GenerateImageRequest request) {
+        if (request.getPrompt() == null || request.getPrompt().trim().isEmpty()) {
+            throw new IllegalArgumentException("No prompt provided");
+        }
+
+        int width = request.getWidth() != null ? request.getWidth() : ImageSpec.DEFAULT.width();
+        int height = request.getHeight() != null ? request.getHeight() : ImageSpec.DEFAULT.height();
+        if (width < MIN_IMAGE_SIDE || height < MIN_IMAGE_SIDE || width > maxImageSide || height > maxImageSide) {
+            throw new IllegalArgumentException(
+                "width and height must be between " + MIN_IMAGE_SIDE + " and " + maxImageSide);
+        }
+
+        String model = request.getModel();
+        if (model == null || model.isBlank() || DEFAULT_MODEL.equals(model)) {
+            model = null;
+        } else {
+            checkModel(model);
+        }
+
+        Long seed = request.getSeed();
+        if (seed != null && (seed < -1 || seed >= MAX_SEED)) {
+            throw new IllegalArgumentException("seed must be between 0 and " + (MAX_SEED - 1) + ", or -1");
+        }
+
+        return new ImageSpec(width / 8 * 8, height / 8 * 8, ImageSpec.DEFAULT.steps(), model,
+            seed != null ? seed : -1);
+    }
+
+    /**
+     * A model override loads that checkpoint on the node for one render and then
+     * reloads the previous one, so it is only allowed when enabled and for
+     * checkpoints every SD node has.
+     *
+     * @throws IllegalArgumentException if overrides are disabled or the model is unknown
+     */
+    private void checkModel(String model) {
+        if (!modelOverrideEnabled) {
+            throw new IllegalArgumentException("Model selection is disabled; omit model or use \"" + DEFAULT_MODEL + "\"");
+        }
+        Set<String> available = backendHealthMonitor.getStableDiffusionModels();
+        if (available == null) {
+            throw new IllegalArgumentException("Unknown model: " + model + " (model list not loaded yet)");
+        }
+        if (!available.contains(model)) {
+            throw new IllegalArgumentException("Unknown model: " + model);
+        }
+    }
+
+    /**
+     * Reports this service plus the latest background probe of each model backend
+     */
     @GetMapping("/health")
-    public ResponseEntity<String> healthCheck() {
-        return ResponseEntity.ok("AI Backend is running!");
+    public ResponseEntity<Object> healthCheck() {
+        Map<String, Object> health = new LinkedHashMap<>();
+        health.put("status", "AI Backend is running!");
+        health.put("stableDiffusion", backendHealthMonitor.getStableDiffusionStatus());
+        health.put("tripoSR", backendHealthMonitor.getTripoSRStatus());
+        return ResponseEntity.ok(health);
     }
 
     @GetMapping("/models")
@@ -59,29 +308,166 @@ public class ImageGenerationController {
         return ResponseEntity.ok(imageGenerationService.getAvailableModels());
     }
 
-    // Add image serving endpoint
+    /**
+     * Serves a stored image. With w (width in pixels, rounded up to a supported
+     * size) and/or fmt (jpeg, png) it serves a resized or re-encoded variant,
+     * rendered once and then cached. Images and variants are immutable, so
+     * responses carry a strong ETag and a year-long immutable Cache-Control;
+     * single byte ranges are honoured and the body is sent with sendfile when
+     * the connector supports it.
+     */
     @GetMapping("/images/{filename}")
-    public ResponseEntity<Resource> getImage(@PathVariable String filename) {
+    public void getImage(@PathVariable String filename,
+                         @RequestParam(required = false) Integer w,
+                         @RequestParam(required = false) String fmt,
+                         HttpServletRequest request,
+                         HttpServletResponse response) throws IOException {
+
+        if (filename.contains("/") || filename.contains("\\") || filename.contains("..")) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        boolean derived = w != null || fmt != null;
+        ImageFileIndex.ImageFile image;
+
+        if (derived) {
+            try {
+                image = derivedImageService.derive(filename, w, fmt);
+            } catch (IllegalArgumentException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                return;
+            } catch (RejectedExecutionException | TimeoutException e) {
+                response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            } catch (Exception e) {
+                logger.error("Failed to derive image from {}: {}", filename, e.getMessage());
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return;
+            }
+        } else {
+            image = imageFileIndex.lookup(filename);
+        }
+
+        if (image == null) {
+            logger.warn("Image file not found: {}", filename);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String etag = image.etag();
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, image.lastModified());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (etagMatches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long end = image.size() - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, image.size());
+            if (bounds == UNSATISFIABLE_RANGE) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + image.size());
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + image.size());
+            }
+        }
+
+        long length = end - start + 1;
+        response.setContentType(image.contentType());
+        response.setContentLengthLong(length);
+
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
         try {
-            logger.info("Serving image: {}", filename);
-            String filepath = "generated-images/" + filename;
-            File file = new File(filepath);
-            
-            if (!file.exists()) {
-                logger.warn("Image file not found: {}", filepath);
-                return ResponseEntity.notFound().build();
+            FileResponses.transfer(request, response, image.path(), start, end);
+        } catch (NoSuchFileException e) {
+            if (derived) {
+                derivedImageService.evict(image.filename());
+            } else {
+                imageFileIndex.evict(filename);
             }
-            
-            logger.info("Image file found, serving: {}", filepath);
-            FileSystemResource resource = new FileSystemResource(file);
-            
-            return ResponseEntity.ok()
-                .contentType(MediaType.IMAGE_PNG)
-                .body(resource);
-                
-        } catch (Exception e) {
-            logger.error("Error serving image: {}", e.getMessage());
-            return ResponseEntity.internalServerError().build();
+            if (!response.isCommitted()) {
+                response.reset();
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            }
+        }
+    }
+
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single "bytes=" range into inclusive bounds. Returns null for a
+     * header to ignore (another unit, several ranges, bad syntax), which RFC 9110
+     * answers with the full file, and UNSATISFIABLE_RANGE for a valid range that
+     * selects nothing: one starting past the end, or a zero-length suffix.
+     */
+    private static long[] parseRange(String range, long size) {
+        if (!range.startsWith("bytes=") || range.contains(",")) {
+            return null;
+        }
+
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            if (first.isEmpty()) {
+                // Suffix range: the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || size == 0) {
+                    return UNSATISFIABLE_RANGE;
+                }
+                return new long[] {Math.max(0, size - suffix), size - 1};
+            }
+
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= size) {
+                return UNSATISFIABLE_RANGE;
+            }
+            return new long[] {start, Math.min(end, size - 1)};
+
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
-}
\ No newline at end of file
+}
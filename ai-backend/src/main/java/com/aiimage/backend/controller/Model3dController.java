@@ -1,24 +1,53 @@
 package com.aiimage.backend.controller;
 
+import com.aiimage.backend.dto.GenerationJobResponse;
+import com.aiimage.backend.service.BackendHealthMonitor;
+import com.aiimage.backend.service.CancellationService;
+import com.aiimage.backend.service.CancellationToken;
+import com.aiimage.backend.service.CircuitOpenException;
+import com.aiimage.backend.service.ClientUploadException;
+import com.aiimage.backend.service.GenerationCancelledException;
+import com.aiimage.backend.service.GenerationJob;
+import com.aiimage.backend.service.GenerationJobService;
+import com.aiimage.backend.service.GenerationMetrics;
+import com.aiimage.backend.service.GenerationRejectedException;
+import com.aiimage.backend.service.GenerationScheduler;
+import com.aiimage.backend.service.ModelDownloadCache;
+import com.aiimage.backend.service.SingleFlight;
+import com.aiimage.backend.service.TextTo3dPipeline;
+import com.aiimage.backend.service.TextTo3dResult;
+import com.aiimage.backend.service.TripoSRClient;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
 import org.springframework.http.*;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.util.WebUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.List;
-import java.util.Base64;
-import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/api/3d")
@@ -27,267 +56,243 @@ public class Model3dController {
 
     private static final Logger logger = LoggerFactory.getLogger(Model3dController.class);
 
-    @Value("${triposr.api.url:http://localhost:5000}")
-    private String TRIPOSR_API_URL;
-    
-    @Value("${local.model.url:http://localhost:7860}")
-    private String localModelUrl;
+    private static final Pattern SAFE_PATH_SEGMENT = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+    private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+
+    @Value("${app.triposr.upload.max-bytes:10485760}")
+    private long maxUploadBytes;
     
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Autowired
+    private GenerationJobService generationJobService;
 
-    @PostMapping("/generate-from-text")
-    public ResponseEntity<String> generate3DFromText(@RequestBody Map<String, String> request) {
-        String imageUrl = null;
-        
-        try {
-            String prompt = request.get("prompt");
-            
-            if (prompt == null || prompt.trim().isEmpty()) {
-                return ResponseEntity.badRequest().body("{\"error\": \"No prompt provided\"}");
-            }
+    @Autowired
+    private ObjectMapper objectMapper;
 
-            // Step 1: Generate image from text using local model with 3D-optimized prompt
-            byte[] imageBytes = generateImageFromText(prompt.trim());
-            
-            if (imageBytes == null) {
-                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("{\"error\": \"Failed to generate image from text\"}");
-            }
+    @Autowired
+    private TextTo3dPipeline textTo3dPipeline;
 
-            // Save the generated image and get URL
-            imageUrl = saveGeneratedImage(imageBytes);
-            logger.info("Generated image URL: {}", imageUrl);
+    @Autowired
+    private TripoSRClient tripoSRClient;
 
-            // Step 2: Send generated image to TripoSR for 3D generation
-            try {
-                String response = generate3DFromImage(imageBytes, "generated_image.png");
-                
-                // Add the generated image URL to the response
-                if (response != null) {
-                    logger.info("Original 3D response: {}", response);
-                    
-                    // Clean the response and ensure proper JSON formatting
-                    String cleanedResponse = response.replace("<EOL>", "").replace("\n", "").trim();
-                    
-                    // Simple string replacement to add image URL - fix the JSON properly
-                    if (cleanedResponse.endsWith("}")) {
-                        // Remove the last } and add our fields, then close with }
-                        String withoutLastBrace = cleanedResponse.substring(0, cleanedResponse.lastIndexOf("}"));
-                        response = withoutLastBrace + 
-                                 ", \"generated_image_url\": \"" + imageUrl + 
-                                 "\", \"prompt\": \"" + prompt.replace("\"", "'") + "\"}";
-                    } else {
-                        response = "{\"generated_image_url\": \"" + imageUrl + 
-                                 "\", \"prompt\": \"" + prompt.replace("\"", "'") + 
-                                 "\", \"response\": " + cleanedResponse + "}";
-                    }
-                    
-                    logger.info("Modified 3D response: {}", response);
-                    return ResponseEntity.ok(response);
-                } else {
-                    // 3D failed but we have the image
-                    String errorResponse = "{\"error\": \"3D generation failed\", \"generated_image_url\": \"" + imageUrl + "\", \"prompt\": \"" + prompt + "\"}";
-                    return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).body(errorResponse);
+    @Autowired
+    private ModelDownloadCache modelDownloadCache;
+
+    @Autowired
+    private BackendHealthMonitor backendHealthMonitor;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    private CancellationService cancellationService;
+
+    @Autowired
+    private GenerationRequesters generationRequesters;
+
+    private final SingleFlight<TextTo3dResult> inFlightTextTo3d = new SingleFlight<>();
+    private final Map<String, CompletableFuture<GenerationScheduler.Permit>> textTo3dGrants = new ConcurrentHashMap<>();
+    private final SingleFlight<Boolean> inFlightDownloads = new SingleFlight<>();
+
+    @PostMapping("/generate-from-text/async")
+    public ResponseEntity<Object> generate3DFromTextAsync(@RequestBody Map<String, String> request,
+                                                          HttpServletRequest httpRequest) {
+        String prompt = request.get("prompt");
+
+        if (prompt == null || prompt.trim().isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "No prompt provided"));
+        }
+
+        String normalizedPrompt = prompt.trim().replaceAll("\\s+", " ");
+        CancellationToken token = cancellationService.newToken();
+
+        try (CancellationToken.Scope scope = CancellationToken.bind(token)) {
+            GenerationScheduler.Requester requester = generationRequesters.from(httpRequest);
+            CompletableFuture<Object> work = submitTextTo3d(normalizedPrompt, requester).thenApply(result -> {
+                ResponseEntity<String> response = toResponse(result);
+                Object body = parseJsonBody(response.getBody());
+
+                if (!response.getStatusCode().is2xxSuccessful()) {
+                    throw new IllegalStateException(String.valueOf(
+                        body instanceof Map<?, ?> map ? map.get("error") : body));
                 }
-                
-            } catch (Exception e3d) {
-                logger.error("3D generation failed: {}", e3d.getMessage());
-                
-                // Return image even if 3D fails
-                String errorResponse = "{\"error\": \"3D generation failed: " + e3d.getMessage().replace("\"", "'") + "\", \"generated_image_url\": \"" + imageUrl + "\", \"prompt\": \"" + prompt + "\"}";
-                return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).body(errorResponse);
-            }
+                return body;
+            });
 
-        } catch (Exception e) {
-            logger.error("Failed to generate 3D model: {}", e.getMessage());
-            
-            // Create error response with image if available
-            String errorResponse;
-            if (imageUrl != null) {
-                errorResponse = "{\"error\": \"Failed to generate 3D model: " + e.getMessage().replace("\"", "'") + "\", \"generated_image_url\": \"" + imageUrl + "\"}";
-            } else {
-                errorResponse = "{\"error\": \"Failed to generate 3D model: " + e.getMessage().replace("\"", "'") + "\"}";
-            }
-            
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+            // The pipeline does the work; the job only tracks its future and cancels it through the token
+            GenerationJob job = generationJobService.track("3d", normalizedPrompt, token,
+                textTo3dGrants.get(normalizedPrompt), work);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(GenerationJobResponse.from(job));
+
+        } catch (GenerationRejectedException e) {
+            token.close();
+            return GenerationRequesters.tooManyRequests(e, Map.of("error", e.getMessage()));
         }
     }
 
     /**
-     * Optimizes prompt specifically for 3D model generation
-     * Ensures clean backgrounds and subject fully in frame
+     * Parses a response body so job results are returned as objects,
+     * falling back to the raw string if the backend sent something malformed
      */
-    private String optimize3DPrompt(String originalPrompt) {
-        String lowerPrompt = originalPrompt.toLowerCase();
-        
-        // Base enhancements for all 3D prompts
-        String baseEnhancement = ", isolated object, centered, white background, studio lighting, " +
-                               "3D model reference, clean composition, no background elements, " +
-                               "product photography style, professional lighting, detailed, high quality, " +
-                               "full object visible, complete subject, fully in frame, not cropped, " +
-                               "entire object shown, wide shot, nothing cut off";
-        
-        // Category-specific optimizations - COMBINED clean backgrounds + full framing
-        String categoryEnhancement = "";
-        
-        if (lowerPrompt.contains("car") || lowerPrompt.contains("vehicle") || 
-            lowerPrompt.contains("truck") || lowerPrompt.contains("motorcycle") ||
-            lowerPrompt.contains("sports car")) {
-            categoryEnhancement = ", side view, automotive photography, metallic finish, " +
-                                "no road, no environment, complete vehicle fully visible, entire car in frame";
-        }
-        else if (lowerPrompt.contains("ship") || lowerPrompt.contains("boat") || 
-                 lowerPrompt.contains("sailing")) {
-            categoryEnhancement = ", side view, naval vessel, no water, no ocean, no sea, " +
-                                "complete ship fully visible, entire vessel in frame";
-        }
-        else if (lowerPrompt.contains("robot") || lowerPrompt.contains("character") || 
-                 lowerPrompt.contains("armor")) {
-            categoryEnhancement = ", full body, standing pose, front view, character design, " +
-                                "complete figure fully visible, entire character in frame";
-        }
-        else if (lowerPrompt.contains("chair") || lowerPrompt.contains("table") || 
-                 lowerPrompt.contains("furniture")) {
-            categoryEnhancement = ", furniture photography, isometric view, no room, no environment, " +
-                                "complete furniture piece fully visible, entire item in frame";
-        }
-        else if (lowerPrompt.contains("house") || lowerPrompt.contains("building") || 
-                 lowerPrompt.contains("tower") || lowerPrompt.contains("castle")) {
-            categoryEnhancement = ", architectural model, front elevation, no landscape, no surroundings, " +
-                                "complete building fully visible, entire structure in frame";
-        }
-        else if (lowerPrompt.contains("animal") || lowerPrompt.contains("cat") || 
-                 lowerPrompt.contains("dog") || lowerPrompt.contains("bird")) {
-            categoryEnhancement = ", animal photography, side profile, natural pose, no habitat, no environment, " +
-                                "full body animal fully visible, entire creature in frame";
+    private Object parseJsonBody(String body) {
+        if (body == null) {
+            return null;
         }
-        else if (lowerPrompt.contains("plane") || lowerPrompt.contains("aircraft") || 
-                 lowerPrompt.contains("airplane")) {
-            categoryEnhancement = ", aircraft photography, side view, no sky, no clouds, no background, " +
-                                "complete aircraft fully visible, entire plane in frame";
+        try {
+            return objectMapper.readValue(body, Map.class);
+        } catch (Exception e) {
+            return body;
         }
-        
-        String optimizedPrompt = originalPrompt + baseEnhancement + categoryEnhancement;
-        
-        logger.info("Original prompt: {}", originalPrompt);
-        logger.info("Optimized 3D prompt: {}", optimizedPrompt);
-        
-        return optimizedPrompt;
     }
 
     /**
-     * Gets negative prompt for 3D generation to avoid unwanted elements and cropping
+     * Generates synchronously. A client that disconnects while waiting has its
+     * render cancelled and its TripoSR stage skipped, if it asked for heartbeats
+     * (see CancellationService) or once the deadline passes.
      */
-    private String get3DNegativePrompt() {
-        return "blurry, low quality, multiple objects, cluttered background, " +
-               "dark shadows, cut off edges, partial view, cropped, text, watermark, " +
-               "busy background, poor lighting, distorted, abstract, environment, " +
-               "landscape, sky, clouds, water, ocean, sea, road, street, grass, " +
-               "trees, buildings in background, people in background, " +
-               "multiple views, collage, montage, split screen, complex scene, " +
-               "cropped out, cut off, partial object, incomplete, truncated, " +
-               "edges cut, frame cutting, not fully visible, missing parts";
-    }
+    @PostMapping("/generate-from-text")
+    public ResponseEntity<String> generate3DFromText(@RequestBody Map<String, String> request,
+                                                     HttpServletRequest httpRequest,
+                                                     HttpServletResponse httpResponse) {
+        String prompt = request.get("prompt");
 
-    private byte[] generateImageFromText(String prompt) {
-        try {
-            // Optimize prompt specifically for 3D generation
-            String optimized3DPrompt = optimize3DPrompt(prompt);
-            String negativePrompt = get3DNegativePrompt();
-            
-            logger.info("Generating image with local model for 3D: {}", optimized3DPrompt);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
+        if (prompt == null || prompt.trim().isEmpty()) {
+            return ResponseEntity.badRequest().body("{\"error\": \"No prompt provided\"}");
+        }
 
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("prompt", optimized3DPrompt);
-            requestBody.put("negative_prompt", negativePrompt);
-            requestBody.put("steps", 10);  // Keep original steps
-            requestBody.put("width", 512);
-            requestBody.put("height", 512);
-            requestBody.put("cfg_scale", 7.5);  // Slightly higher for better prompt adherence
-            requestBody.put("sampler_name", "DPM++ 2M Karras");  // Better sampler for clean images
+        String normalizedPrompt = prompt.trim().replaceAll("\\s+", " ");
 
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+        try (CancellationToken token = cancellationService.newToken();
+             CancellationService.ConnectionWatch watch =
+                 cancellationService.watchConnection(httpRequest, httpResponse, token);
+             CancellationToken.Scope scope = CancellationToken.bind(token)) {
+            return toResponse(submitTextTo3d(normalizedPrompt, generationRequesters.from(httpRequest)).join());
 
-            logger.info("Sending request to local model for 3D pipeline, waiting for completion...");
-            
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                localModelUrl + "/sdapi/v1/txt2img",
-                HttpMethod.POST,
-                entity,
-                new ParameterizedTypeReference<Map<String, Object>>() {}
-            );
+        } catch (GenerationRejectedException e) {
+            return GenerationRequesters.tooManyRequests(e, errorJson(e.getMessage()));
 
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                Map<String, Object> responseBody = response.getBody();
-                Object images = responseBody.get("images");
-                
-                if (images instanceof List<?> imagesList && !imagesList.isEmpty()) {
-                    String base64Image = (String) imagesList.get(0);
-                    return Base64.getDecoder().decode(base64Image);
-                }
-            }
+        } catch (Exception e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
 
-            return null;
+            if (cause instanceof GenerationCancelledException) {
+                // A client still listening was cut off by the deadline
+                return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                    .body(errorJson(cause.getMessage()));
+            }
+            if (cause instanceof RejectedExecutionException) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("{\"error\": \"Generation queue is full, try again later\"}");
+            }
 
-        } catch (Exception e) {
-            logger.error("Error generating image with local model: {}", e.getMessage());
-            return null;
+            logger.error("Failed to generate 3D model: {}", cause.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(errorJson("Failed to generate 3D model: " + cause.getMessage()));
         }
     }
 
-    private String saveGeneratedImage(byte[] imageBytes) {
-        try {
-            String filename = "3d_" + System.currentTimeMillis() + ".png";
-            String filepath = "generated-images/" + filename;
+    /**
+     * Queues a prompt on the SD/TripoSR pipeline. Concurrent requests for the same
+     * prompt share one SD render and one TripoSR job, scheduled as the first caller;
+     * its scheduler grant is kept in textTo3dGrants until the work finishes.
+     */
+    private CompletableFuture<TextTo3dResult> submitTextTo3d(String prompt, GenerationScheduler.Requester requester) {
+        return inFlightTextTo3d.submit(prompt, () -> {
+            TextTo3dPipeline.Submission submission = textTo3dPipeline.submit(prompt, requester);
+            textTo3dGrants.put(prompt, submission.grant());
+            submission.result().whenComplete((result, error) -> textTo3dGrants.remove(prompt, submission.grant()));
+            return submission.result();
+        });
+    }
+
+    ResponseEntity<String> toResponse(TextTo3dResult result) {
+        String prompt = result.prompt();
+        String imageUrl = result.imageUrl();
+
+        if (imageUrl == null) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(errorJson(result.error()));
+        }
+
+        String response = result.modelResponse();
+        
+        // Add the generated image URL to the response
+        if (response != null) {
+            logger.info("Original 3D response: {}", response);
             
-            try (FileOutputStream fos = new FileOutputStream(filepath)) {
-                fos.write(imageBytes);
+            // Clean the response and ensure proper JSON formatting
+            String cleanedResponse = response.replace("<EOL>", "").replace("\n", "").trim();
+            Object parsed = parseJsonValue(cleanedResponse);
+
+            Map<String, Object> body = new LinkedHashMap<>();
+            if (parsed instanceof Map<?, ?> fields) {
+                // Add our fields to TripoSR's own object
+                fields.forEach((key, value) -> body.put(String.valueOf(key), value));
+            } else {
+                body.put("response", parsed);
             }
+            body.put("generated_image_url", imageUrl);
+            body.put("prompt", prompt);
+            response = toJson(body);
             
-            logger.info("Saved 3D source image to: {}", filepath);
-            return "http://localhost:8080/api/images/" + filename;
-            
-        } catch (Exception e) {
-            logger.error("Failed to save 3D source image", e);
-            return null;
+            logger.info("Modified 3D response: {}", response);
+            return ResponseEntity.ok(response);
         }
+
+        // 3D failed but we have the image
+        metrics.partialModelResult();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", result.error());
+        body.put("generated_image_url", imageUrl);
+        body.put("prompt", prompt);
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).body(toJson(body));
     }
 
-    private String generate3DFromImage(byte[] imageBytes, String filename) {
+    /**
+     * Serializes a response body so prompts and error messages are escaped
+     * properly rather than spliced into the JSON
+     */
+    private String toJson(Map<String, Object> body) {
         try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-
-            MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("image", new ByteArrayResource(imageBytes) {
-                @Override
-                public String getFilename() {
-                    return "generated_image.png";  // Use fixed filename for TripoSR
-                }
-            });
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            String response = restTemplate.postForObject(
-                TRIPOSR_API_URL + "/generate-3d", 
-                requestEntity, 
-                String.class
-            );
+            return objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize response", e);
+        }
+    }
 
-            return response;
+    private String errorJson(String message) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", message);
+        return toJson(body);
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to generate 3D model from image: " + e.getMessage());
+    /**
+     * Parses TripoSR's response, keeping it as a string if it is not valid JSON
+     */
+    private Object parseJsonValue(String json) {
+        try {
+            return objectMapper.readValue(json, Object.class);
+        } catch (JsonProcessingException e) {
+            return json;
         }
     }
 
+    /**
+     * Forwards an uploaded image to TripoSR. With app.triposr.upload.streaming the
+     * image part is piped from the request into the TripoSR request through a fixed
+     * buffer, so heap use per upload stays constant whatever its size; the upload
+     * is capped by app.triposr.upload.max-bytes instead of the multipart limits.
+     */
     @PostMapping("/generate")
-    public ResponseEntity<String> generate3DModel(@RequestParam("image") MultipartFile imageFile) {
+    public ResponseEntity<String> generate3DModel(HttpServletRequest request) {
+        MultipartHttpServletRequest multipart = WebUtils.getNativeRequest(request, MultipartHttpServletRequest.class);
+        if (multipart != null) {
+            return generate3DModel(multipart.getFile("image"));
+        }
+        return generate3DModelStreaming(request);
+    }
+
+    private ResponseEntity<String> generate3DModel(MultipartFile imageFile) {
         try {
-            if (imageFile.isEmpty()) {
+            if (imageFile == null || imageFile.isEmpty()) {
                 return ResponseEntity.badRequest().body("{\"error\": \"No image file provided\"}");
             }
 
@@ -296,78 +301,264 @@ public class Model3dController {
                 return ResponseEntity.badRequest().body("{\"error\": \"File must be an image\"}");
             }
 
-            String response = generate3DFromImage(imageFile.getBytes(), imageFile.getOriginalFilename());
+            // Streamed from wherever the container stored the part rather than copied onto the heap
+            String response = tripoSRClient.generate3D(imageFile.getResource());
 
             return ResponseEntity.ok(response);
 
-        } catch (IOException e) {
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(errorJson(e.getMessage()));
+        } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body("{\"error\": \"Failed to process image: " + e.getMessage() + "\"}");
+                .body(errorJson("Failed to generate 3D model: " + e.getMessage()));
+        }
+    }
+
+    private ResponseEntity<String> generate3DModelStreaming(HttpServletRequest request) {
+        if (request.getContentLengthLong() > maxUploadBytes) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body("{\"error\": \"Upload exceeds the " + maxUploadBytes + " byte limit\"}");
+        }
+
+        MultipartPartReader reader = null;
+        try {
+            reader = MultipartPartReader.open(request.getInputStream(), request.getContentType(), maxUploadBytes);
+            if (reader == null) {
+                return ResponseEntity.badRequest().body("{\"error\": \"Expected a multipart/form-data upload\"}");
+            }
+
+            MultipartPartReader.Part part;
+            while ((part = reader.nextPart()) != null && !"image".equals(part.name())) {
+                // Skip other form fields
+            }
+
+            if (part == null || part.filename() == null) {
+                return ResponseEntity.badRequest().body("{\"error\": \"No image file provided\"}");
+            }
+            if (part.contentType() == null || !part.contentType().startsWith("image/")) {
+                return ResponseEntity.badRequest().body("{\"error\": \"File must be an image\"}");
+            }
+
+            // Peek so an empty file is rejected before TripoSR is involved
+            PushbackInputStream image = new PushbackInputStream(part.body(), 1);
+            int first = image.read();
+            if (first < 0) {
+                return ResponseEntity.badRequest().body("{\"error\": \"No image file provided\"}");
+            }
+            image.unread(first);
+
+            String response = tripoSRClient.generate3D(new InputStreamResource(image));
+
+            return ResponseEntity.ok(response);
+
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(errorJson(e.getMessage()));
         } catch (Exception e) {
+            if (reader != null && reader.isTooLarge()) {
+                return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .body("{\"error\": \"Upload exceeds the " + maxUploadBytes + " byte limit\"}");
+            }
+            if (hasCause(e, ClientUploadException.class)) {
+                return ResponseEntity.badRequest()
+                    .body(errorJson("Failed to read upload: " + rootMessage(e)));
+            }
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body("{\"error\": \"Failed to generate 3D model: " + e.getMessage() + "\"}");
+                .body(errorJson("Failed to generate 3D model: " + e.getMessage()));
+        }
+    }
+
+    private static boolean hasCause(Throwable e, Class<? extends Throwable> type) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable root = e;
+        while (root.getCause() != null) {
+            root = root.getCause();
         }
+        return root.getMessage();
     }
 
+    /**
+     * Serves a mesh from the local model cache, or streams it from TripoSR to the
+     * client and into the cache at the same time so later downloads stay local
+     */
     @GetMapping("/download/{requestId}/{filename}")
-    public ResponseEntity<Resource> downloadModel(
+    public void downloadModel(
             @PathVariable String requestId, 
-            @PathVariable String filename) {
-        try {
-            String downloadUrl = TRIPOSR_API_URL + "/download/" + requestId + "/" + filename;
-            
-            ResponseEntity<byte[]> response = restTemplate.getForEntity(downloadUrl, byte[].class);
-            
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                ByteArrayResource resource = new ByteArrayResource(response.getBody());
-                
-                String contentType = getContentType(filename);
-                
-                return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                    .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
+            @PathVariable String filename,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+
+        if (!SAFE_PATH_SEGMENT.matcher(requestId).matches() || !SAFE_PATH_SEGMENT.matcher(filename).matches()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        String contentType = getContentType(filename);
+
+        // A download that waited on another request's fetch finds the file cached on its second pass
+        for (int pass = 0; pass < 2; pass++) {
+            if (serveCachedModel(requestId, filename, contentType, request, response)) {
+                return;
             }
 
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            AtomicBoolean fetched = new AtomicBoolean();
+            try {
+                // Concurrent misses for the same file share one TripoSR download
+                inFlightDownloads.execute(requestId + "/" + filename, () -> {
+                    fetched.set(true);
+                    fetchModel(requestId, filename, contentType, response);
+                    return Boolean.TRUE;
+                });
+                if (fetched.get()) {
+                    return;
+                }
+
+            } catch (HttpClientErrorException.NotFound e) {
+                sendDownloadError(response, HttpServletResponse.SC_NOT_FOUND);
+                return;
+            } catch (CircuitOpenException | RejectedExecutionException e) {
+                response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+                sendDownloadError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            } catch (Exception e) {
+                logger.error("Failed to download model {}/{}: {}", requestId, filename, e.getMessage());
+                sendDownloadError(response, HttpServletResponse.SC_BAD_GATEWAY);
+                return;
+            }
         }
+
+        // Fetched by another request and evicted again before this one could read it
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        sendDownloadError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
     }
 
-    @GetMapping("/models")
-    public ResponseEntity<String> listModels() {
+    /**
+     * Sends a cached mesh; false on a miss
+     */
+    private boolean serveCachedModel(String requestId, String filename, String contentType,
+                                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path cached = modelDownloadCache.lookup(requestId, filename);
+        if (cached == null) {
+            return false;
+        }
+
         try {
-            String response = restTemplate.getForObject(
-                TRIPOSR_API_URL + "/list-models", 
-                String.class
-            );
+            long size = Files.size(cached);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+            response.setContentLengthLong(size);
+            FileResponses.transfer(request, response, cached, 0, size - 1);
+            metrics.modelDownloadBytes("cache", size);
+            return true;
+        } catch (NoSuchFileException e) {
+            // Evicted between lookup and read
+            response.reset();
+            return false;
+        }
+    }
 
-            return ResponseEntity.ok(response);
+    /**
+     * Streams a mesh from TripoSR to the client and into the cache at the same
+     * time. If the client goes away the download still completes into the cache,
+     * since other requests may be waiting for it.
+     */
+    private void fetchModel(String requestId, String filename, String contentType,
+                            HttpServletResponse response) throws IOException {
+        Path tempFile = modelDownloadCache.newTempFile(requestId, filename);
+        try {
+            tripoSRClient.download(requestId, filename, upstream -> {
+                response.setContentType(contentType);
+                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+                if (upstream.getHeaders().getContentLength() >= 0) {
+                    response.setContentLengthLong(upstream.getHeaders().getContentLength());
+                }
 
-        } catch (Exception e) {
+                long streamed = 0;
+                OutputStream clientOut = response.getOutputStream();
+                try (InputStream in = upstream.getBody();
+                     OutputStream cacheOut = Files.newOutputStream(tempFile)) {
+                    byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        cacheOut.write(buffer, 0, read);
+                        if (clientOut != null) {
+                            try {
+                                clientOut.write(buffer, 0, read);
+                            } catch (IOException e) {
+                                clientOut = null;
+                            }
+                        }
+                        streamed += read;
+                    }
+                } finally {
+                    metrics.modelDownloadBytes("triposr", streamed);
+                }
+                return null;
+            });
+            modelDownloadCache.commit(requestId, filename, tempFile);
+
+        } catch (IOException | RuntimeException e) {
+            modelDownloadCache.discard(tempFile);
+            throw e;
+        }
+    }
+
+    private static void sendDownloadError(HttpServletResponse response, int status) throws IOException {
+        if (!response.isCommitted()) {
+            response.reset();
+            response.sendError(status);
+        }
+    }
+
+    /**
+     * Serves the model list from the last successful background probe of TripoSR
+     */
+    @GetMapping("/models")
+    public ResponseEntity<String> listModels() {
+        String response = backendHealthMonitor.getTripoSRModels();
+
+        if (response == null) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body("{\"error\": \"Failed to fetch models: " + e.getMessage() + "\"}");
+                .body("{\"error\": \"Failed to fetch models: TripoSR has not responded yet\"}");
         }
+
+        return ResponseEntity.ok(response);
     }
 
+    /**
+     * Answers from the latest background probe rather than calling TripoSR per request
+     */
     @GetMapping("/health")
     public ResponseEntity<String> healthCheck() {
-        try {
-            String response = restTemplate.getForObject(
-                TRIPOSR_API_URL + "/health", 
-                String.class
-            );
+        BackendHealthMonitor.BackendStatus status = backendHealthMonitor.getTripoSRStatus();
 
+        if (status == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body("{\"java_api\": \"healthy\", \"triposr_api\": \"unknown\", \"error\": \"No health probe has completed yet\"}");
+        }
+
+        if (status.healthy()) {
             return ResponseEntity.ok(
-                "{\"java_api\": \"healthy\", \"triposr_api\": \"healthy\", \"response\": " + response + "}"
+                "{\"java_api\": \"healthy\", \"triposr_api\": \"healthy\", \"latency_ms\": " + status.latencyMs()
+                    + ", \"checked_at\": " + status.checkedAt() + ", \"response\": " + status.body() + "}"
             );
-
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
-                .body("{\"java_api\": \"healthy\", \"triposr_api\": \"unhealthy\", \"error\": \"" + e.getMessage() + "\"}");
         }
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("java_api", "healthy");
+        body.put("triposr_api", "unhealthy");
+        body.put("checked_at", status.checkedAt());
+        body.put("error", status.error());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(toJson(body));
     }
 
     private String getContentType(String filename) {
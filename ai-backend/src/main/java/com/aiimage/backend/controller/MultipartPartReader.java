@@ -0,0 +1,251 @@
+package com.aiimage.backend.controller;
+
+import com.aiimage.backend.service.ClientUploadException;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a multipart/form-data request body one part at a time, straight off the
+ * request stream through a fixed buffer, so a part can be forwarded while it is
+ * still arriving. Each part's body must be read to the end, or left to
+ * nextPart(), before the next part is available.
+ *
+ * Bytes read from the request are capped at maxBytes; past that, and on a
+ * truncated or malformed body, reads fail with ClientUploadException.
+ */
+final class MultipartPartReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+
+    record Part(String name, String filename, String contentType, InputStream body) {}
+
+    private final InputStream in;
+    private final long maxBytes;
+    private final byte[] delimiter;
+    private final byte[] buffer;
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private boolean finished;
+    private long bytesRead;
+    private boolean tooLarge;
+    private PartBody current;
+
+    private MultipartPartReader(InputStream in, String boundary, long maxBytes) {
+        this.in = in;
+        this.maxBytes = maxBytes;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+
+        // The first boundary has no leading CRLF; seeding one lets the preamble be read like a part body
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+        current = new PartBody();
+    }
+
+    /**
+     * Returns a reader for a multipart/form-data body, or null if the content type
+     * is not multipart/form-data with a boundary
+     */
+    static MultipartPartReader open(InputStream in, String contentType, long maxBytes) {
+        if (contentType == null) {
+            return null;
+        }
+        try {
+            MediaType mediaType = MediaType.parseMediaType(contentType);
+            String boundary = mediaType.getParameter("boundary");
+            if (!MediaType.MULTIPART_FORM_DATA.includes(mediaType) || boundary == null || boundary.isEmpty()) {
+                return null;
+            }
+            if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+                boundary = boundary.substring(1, boundary.length() - 1);
+            }
+            return new MultipartPartReader(in, boundary, maxBytes);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Skips whatever is left of the current part and returns the next one, or null
+     * after the closing boundary
+     */
+    Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        current.skipRemaining();
+
+        if (!fill(2)) {
+            throw new ClientUploadException("Multipart body ended before the closing boundary");
+        }
+        if (buffer[pos] == '-' && buffer[pos + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        readLine();
+
+        String name = null;
+        String filename = null;
+        String contentType = null;
+        int headerBytes = 0;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            headerBytes += line.length();
+            if (headerBytes > MAX_HEADER_BYTES) {
+                throw new ClientUploadException("Multipart part headers are too large");
+            }
+
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String header = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+
+            if (header.equalsIgnoreCase(HttpHeaders.CONTENT_DISPOSITION)) {
+                ContentDisposition disposition = ContentDisposition.parse(value);
+                name = disposition.getName();
+                filename = disposition.getFilename();
+            } else if (header.equalsIgnoreCase(HttpHeaders.CONTENT_TYPE)) {
+                contentType = value;
+            }
+        }
+
+        current = new PartBody();
+        return new Part(name, filename, contentType, current);
+    }
+
+    /**
+     * True once the body has gone past maxBytes
+     */
+    boolean isTooLarge() {
+        return tooLarge;
+    }
+
+    /**
+     * Makes at least n unread bytes available unless the request ends first
+     */
+    private boolean fill(int n) throws IOException {
+        if (limit - pos >= n) {
+            return true;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < n && !eof) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+                break;
+            }
+            limit += read;
+            bytesRead += read;
+            if (bytesRead > maxBytes) {
+                tooLarge = true;
+                throw new ClientUploadException("Upload exceeds the " + maxBytes + " byte limit");
+            }
+        }
+        return limit - pos >= n;
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            if (!fill(2)) {
+                throw new ClientUploadException("Multipart body ended inside part headers");
+            }
+            if (buffer[pos] == '\r' && buffer[pos + 1] == '\n') {
+                pos += 2;
+                return line.toString();
+            }
+            if (line.length() > MAX_HEADER_BYTES) {
+                throw new ClientUploadException("Multipart part headers are too large");
+            }
+            line.append((char) (buffer[pos++] & 0xff));
+        }
+    }
+
+    /**
+     * Start of the delimiter within [from, to), or -1
+     */
+    private int indexOfDelimiter(int from, int to) {
+        byte first = delimiter[0];
+        outer:
+        for (int i = from; i <= to - delimiter.length; i++) {
+            if (buffer[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Body of the current part; ends just before the next delimiter and consumes it
+     */
+    private final class PartBody extends InputStream {
+
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+
+            fill(delimiter.length);
+            if (eof && limit == pos) {
+                throw new ClientUploadException("Multipart body ended before the closing boundary");
+            }
+
+            // Bytes that cannot be the start of a delimiter still waiting to be read in full
+            int safe = eof ? limit - pos : limit - pos - delimiter.length + 1;
+            int count = Math.min(length, safe);
+            int delimiterAt = indexOfDelimiter(pos, Math.min(limit, pos + count + delimiter.length - 1));
+
+            if (delimiterAt == pos) {
+                pos += delimiter.length;
+                done = true;
+                return -1;
+            }
+            if (delimiterAt > pos) {
+                count = delimiterAt - pos;
+            }
+
+            System.arraycopy(buffer, pos, target, offset, count);
+            pos += count;
+            return count;
+        }
+
+        void skipRemaining() throws IOException {
+            byte[] discard = new byte[8192];
+            while (read(discard, 0, discard.length) >= 0) {
+                // Drain up to the next delimiter
+            }
+        }
+    }
+}
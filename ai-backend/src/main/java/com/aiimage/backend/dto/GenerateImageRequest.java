@@ -7,6 +7,8 @@ public class GenerateImageRequest {
     private Integer width = 512;
     private Integer height = 512;
     private String model = "default";
+    private Long seed;
+    private Boolean progressive = false;
 
     public GenerateImageRequest() {}
 
@@ -53,4 +55,20 @@ public class GenerateImageRequest {
     public void setModel(String model) {
         this.model = model;
     }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    public Boolean getProgressive() {
+        return progressive;
+    }
+
+    public void setProgressive(Boolean progressive) {
+        this.progressive = progressive;
+    }
 }
\ No newline at end of file
@@ -10,6 +10,10 @@ public class GenerateImageResponse {
     private String model;
     private Integer width;
     private Integer height;
+    private Long seed;
+    private Boolean preview;
+    private String refineJobId;
+    private String refineStatusUrl;
 
     public GenerateImageResponse() {}
 
@@ -76,4 +80,36 @@ public class GenerateImageResponse {
     public void setHeight(Integer height) {
         this.height = height;
     }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    public Boolean getPreview() {
+        return preview;
+    }
+
+    public void setPreview(Boolean preview) {
+        this.preview = preview;
+    }
+
+    public String getRefineJobId() {
+        return refineJobId;
+    }
+
+    public void setRefineJobId(String refineJobId) {
+        this.refineJobId = refineJobId;
+    }
+
+    public String getRefineStatusUrl() {
+        return refineStatusUrl;
+    }
+
+    public void setRefineStatusUrl(String refineStatusUrl) {
+        this.refineStatusUrl = refineStatusUrl;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.aiimage.backend.dto;
+
+import com.aiimage.backend.service.GenerationJob;
+
+public class GenerationJobResponse {
+
+    private String jobId;
+    private String type;
+    private String status;
+    private String prompt;
+    private Object result;
+    private String error;
+    private String statusUrl;
+    private Long createdAt;
+    private Long startedAt;
+    private Long completedAt;
+
+    public GenerationJobResponse() {}
+
+    public static GenerationJobResponse from(GenerationJob job) {
+        GenerationJobResponse response = new GenerationJobResponse();
+        response.setJobId(job.getId());
+        response.setType(job.getType());
+        response.setStatus(job.getStatus().name().toLowerCase());
+        response.setPrompt(job.getPrompt());
+        response.setResult(job.getResult());
+        response.setError(job.getError());
+        response.setStatusUrl("/api/jobs/" + job.getId());
+        response.setCreatedAt(job.getCreatedAt());
+        response.setStartedAt(job.getStartedAt());
+        response.setCompletedAt(job.getCompletedAt());
+        return response;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public void setPrompt(String prompt) {
+        this.prompt = prompt;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+
+    public void setResult(Object result) {
+        this.result = result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public String getStatusUrl() {
+        return statusUrl;
+    }
+
+    public void setStatusUrl(String statusUrl) {
+        this.statusUrl = statusUrl;
+    }
+
+    public Long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Long getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(Long completedAt) {
+        this.completedAt = completedAt;
+    }
+}
@@ -0,0 +1,127 @@
+package com.aiimage.backend.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+
+/**
+ * One finished generation: which prompt produced which file, and how it went.
+ * Rows are append-only and listed newest first by (createdAt, id).
+ */
+@Entity
+@Table(name = "generation_record", indexes = {
+    @Index(name = "idx_generation_prompt_hash", columnList = "promptHash"),
+    @Index(name = "idx_generation_created", columnList = "createdAt, id"),
+    @Index(name = "idx_generation_status_created", columnList = "status, createdAt, id"),
+    @Index(name = "idx_generation_cache_key", columnList = "cacheKey")
+})
+public class GenerationRecord {
+
+    public enum Status {
+        COMPLETED, FAILED
+    }
+
+    public static final int MAX_PROMPT_LENGTH = 2000;
+    public static final int MAX_ERROR_LENGTH = 1000;
+
+    // Sequence ids are allocated in blocks so batched inserts need no round trip per row
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "generation_record_seq")
+    @SequenceGenerator(name = "generation_record_seq", sequenceName = "generation_record_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false, length = 16)
+    private String type;
+
+    @Column(nullable = false, length = MAX_PROMPT_LENGTH)
+    private String prompt;
+
+    @Column(nullable = false, length = 64)
+    private String promptHash;
+
+    @Column(length = 64)
+    private String cacheKey;
+
+    private String filename;
+
+    private Long fileSize;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status;
+
+    @Column(length = MAX_ERROR_LENGTH)
+    private String error;
+
+    @Column(nullable = false)
+    private long createdAt;
+
+    private Long durationMs;
+
+    protected GenerationRecord() {}
+
+    public GenerationRecord(String type, String prompt, String promptHash, String cacheKey, String filename,
+                            Long fileSize, Status status, String error, long createdAt, Long durationMs) {
+        this.type = type;
+        this.prompt = prompt;
+        this.promptHash = promptHash;
+        this.cacheKey = cacheKey;
+        this.filename = filename;
+        this.fileSize = fileSize;
+        this.status = status;
+        this.error = error;
+        this.createdAt = createdAt;
+        this.durationMs = durationMs;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public String getPromptHash() {
+        return promptHash;
+    }
+
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public Long getFileSize() {
+        return fileSize;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public Long getDurationMs() {
+        return durationMs;
+    }
+}
@@ -0,0 +1,41 @@
+package com.aiimage.backend.repository;
+
+import com.aiimage.backend.model.GenerationRecord;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface GenerationRecordRepository extends JpaRepository<GenerationRecord, Long> {
+
+    /**
+     * Keyset page: records strictly older than (createdAt, id), newest first.
+     * Pass Long.MAX_VALUE for both to get the first page.
+     */
+    @Query("select r from GenerationRecord r"
+        + " where r.createdAt < :createdAt or (r.createdAt = :createdAt and r.id < :id)"
+        + " order by r.createdAt desc, r.id desc")
+    List<GenerationRecord> findPageBefore(@Param("createdAt") long createdAt, @Param("id") long id,
+                                          Pageable limit);
+
+    @Query("select r from GenerationRecord r"
+        + " where r.status = :status and (r.createdAt < :createdAt or (r.createdAt = :createdAt and r.id < :id))"
+        + " order by r.createdAt desc, r.id desc")
+    List<GenerationRecord> findPageBeforeWithStatus(@Param("status") GenerationRecord.Status status,
+                                                    @Param("createdAt") long createdAt, @Param("id") long id,
+                                                    Pageable limit);
+
+    List<GenerationRecord> findByPromptHashOrderByCreatedAtDesc(String promptHash, Pageable limit);
+
+    /**
+     * Most recent renders with the given status that can be served from the result cache
+     */
+    @Query("select r from GenerationRecord r"
+        + " where r.status = :status and r.cacheKey is not null and r.filename is not null"
+        + " order by r.createdAt desc, r.id desc")
+    List<GenerationRecord> findRecentCacheable(@Param("status") GenerationRecord.Status status, Pageable limit);
+}
@@ -0,0 +1,190 @@
+package com.aiimage.backend.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Probes every model backend on a fixed interval and keeps the latest result in
+ * memory, so health and model-list endpoints answer from a snapshot instead of
+ * calling the GPU servers on every poll. Probe results also feed the circuit
+ * breakers: a successful probe moves an open circuit to half-open so the next
+ * call tries the backend without waiting out the open period, and failed probes
+ * count towards opening it.
+ *
+ * With app.image.model-override.enabled it also keeps the checkpoints every
+ * healthy SD node offers (/sdapi/v1/sd-models), which requested models are
+ * checked against.
+ */
+@Component
+public class BackendHealthMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackendHealthMonitor.class);
+
+    /**
+     * Result of the latest probe of one backend. body is only kept for small
+     * responses that are served back to clients.
+     */
+    public record BackendStatus(String url, boolean healthy, long latencyMs, long checkedAt, String body, String error) {
+    }
+
+    @Autowired
+    @Qualifier("healthCheckRestTemplate")
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private StableDiffusionPool stableDiffusionPool;
+
+    @Autowired
+    @Qualifier("stableDiffusionCircuitBreaker")
+    private CircuitBreaker stableDiffusionCircuitBreaker;
+
+    @Autowired
+    @Qualifier("tripoSRCircuitBreaker")
+    private CircuitBreaker tripoSRCircuitBreaker;
+
+    @Value("${triposr.api.url:http://localhost:5000}")
+    private String triposrApiUrl;
+
+    @Value("${app.health.sd.path:/sdapi/v1/options}")
+    private String stableDiffusionProbePath;
+
+    @Value("${app.image.model-override.enabled:false}")
+    private boolean modelOverrideEnabled;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private volatile List<BackendStatus> stableDiffusionStatus = List.of();
+    private volatile BackendStatus tripoSRStatus;
+    private volatile String tripoSRModels;
+    private volatile Set<String> stableDiffusionModels;
+
+    @Scheduled(fixedDelayString = "${app.health.interval-ms:10000}")
+    public void refresh() {
+        List<BackendStatus> sdStatus = new ArrayList<>();
+        for (String url : stableDiffusionPool.getUrls()) {
+            // Only the status matters; the options body can be large, so it is never read
+            sdStatus.add(probe(url, url + stableDiffusionProbePath, false));
+        }
+        stableDiffusionStatus = List.copyOf(sdStatus);
+        report(stableDiffusionCircuitBreaker, sdStatus.stream().anyMatch(BackendStatus::healthy));
+        if (modelOverrideEnabled) {
+            refreshStableDiffusionModels(sdStatus);
+        }
+
+        BackendStatus tripoSR = probe(triposrApiUrl, triposrApiUrl + "/health", true);
+        tripoSRStatus = tripoSR;
+        report(tripoSRCircuitBreaker, tripoSR.healthy());
+
+        if (tripoSR.healthy()) {
+            BackendStatus models = probe(triposrApiUrl, triposrApiUrl + "/list-models", true);
+            if (models.healthy()) {
+                tripoSRModels = models.body();
+            }
+        }
+    }
+
+    public List<BackendStatus> getStableDiffusionStatus() {
+        return stableDiffusionStatus;
+    }
+
+    public boolean isStableDiffusionHealthy() {
+        return stableDiffusionStatus.stream().anyMatch(BackendStatus::healthy);
+    }
+
+    /**
+     * Latest TripoSR /health probe, or null before the first probe has run
+     */
+    public BackendStatus getTripoSRStatus() {
+        return tripoSRStatus;
+    }
+
+    /**
+     * Last successful /list-models response, or null if TripoSR was never reachable
+     */
+    public String getTripoSRModels() {
+        return tripoSRModels;
+    }
+
+    /**
+     * Checkpoint names (title or model_name) offered by every healthy SD node at
+     * the last successful listing, or null if no listing has succeeded yet
+     */
+    public Set<String> getStableDiffusionModels() {
+        return stableDiffusionModels;
+    }
+
+    /**
+     * Keeps only checkpoints every healthy node has, since a request can be
+     * routed to any of them. The previous list stays if no node could be listed.
+     */
+    private void refreshStableDiffusionModels(List<BackendStatus> sdStatus) {
+        Set<String> common = null;
+        for (BackendStatus status : sdStatus) {
+            if (!status.healthy()) {
+                continue;
+            }
+            BackendStatus listing = probe(status.url(), status.url() + "/sdapi/v1/sd-models", true);
+            if (!listing.healthy()) {
+                continue;
+            }
+            try {
+                Set<String> names = new HashSet<>();
+                for (JsonNode model : objectMapper.readTree(listing.body())) {
+                    names.add(model.path("title").asText());
+                    names.add(model.path("model_name").asText());
+                }
+                names.remove("");
+                if (common == null) {
+                    common = names;
+                } else {
+                    common.retainAll(names);
+                }
+            } catch (Exception e) {
+                logger.debug("Unreadable model list from {}: {}", status.url(), e.getMessage());
+            }
+        }
+        if (common != null) {
+            stableDiffusionModels = Set.copyOf(common);
+        }
+    }
+
+    private BackendStatus probe(String baseUrl, String url, boolean keepBody) {
+        long start = System.nanoTime();
+        try {
+            String body = keepBody
+                ? restTemplate.getForObject(url, String.class)
+                : restTemplate.execute(url, HttpMethod.GET, null, response -> null);
+            return new BackendStatus(baseUrl, true, elapsedMs(start), System.currentTimeMillis(), body, null);
+        } catch (Exception e) {
+            logger.debug("Health probe of {} failed: {}", url, e.getMessage());
+            return new BackendStatus(baseUrl, false, elapsedMs(start), System.currentTimeMillis(), null, e.getMessage());
+        }
+    }
+
+    private void report(CircuitBreaker circuitBreaker, boolean healthy) {
+        if (healthy) {
+            circuitBreaker.recordHealthy();
+        } else {
+            circuitBreaker.recordFailure();
+        }
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
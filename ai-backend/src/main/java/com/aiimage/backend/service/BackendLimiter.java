@@ -0,0 +1,75 @@
+package com.aiimage.backend.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caps concurrent calls to one model backend with a fair semaphore. With virtual
+ * threads there is no pool size to bound backend load, so this is what does it;
+ * a waiting caller costs a parked virtual thread rather than a platform stack.
+ * Callers beyond maxWaiting are rejected instead of parked.
+ */
+public class BackendLimiter {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxWaiting;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public BackendLimiter(String name, int maxConcurrent, int maxWaiting) {
+        this.name = name;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxWaiting = maxWaiting;
+        this.permits = new Semaphore(this.maxConcurrent, true);
+    }
+
+    /**
+     * Runs the call once a slot is free
+     *
+     * @throws RejectedExecutionException if too many callers are already waiting
+     */
+    public <T> T call(Supplier<T> action) {
+        if (!permits.tryAcquire()) {
+            awaitPermit();
+        }
+
+        try {
+            return action.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void awaitPermit() {
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException(name + " has too many calls waiting, try again later");
+        }
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for " + name, e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("active", maxConcurrent - permits.availablePermits());
+        stats.put("waiting", waiting.get());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+}
@@ -0,0 +1,156 @@
+package com.aiimage.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the CancellationTokens for generation requests and cancels them when
+ * the request's deadline (app.cancel.deadline-ms) passes or its client goes away.
+ *
+ * The servlet API reports a closed connection only when a write to it fails.
+ * A client that sends "X-Heartbeat: true" opts into heartbeats: while its request
+ * waits on generation, a space is written to the response body every
+ * app.cancel.heartbeat-ms. JSON parsers skip leading whitespace, so the body
+ * reads the same, but the first heartbeat commits the status as 200 and anything
+ * that fails after that reports its error in the body only. Without the header
+ * status codes are unaffected and a disconnect is only caught by the deadline.
+ */
+@Service
+public class CancellationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CancellationService.class);
+
+    public static final String HEARTBEAT_HEADER = "X-Heartbeat";
+
+    private ScheduledThreadPoolExecutor scheduler;
+    // Heartbeat writes can block on slow clients, so they never share a thread with deadlines
+    private ScheduledThreadPoolExecutor heartbeats;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Value("${app.cancel.deadline-ms:600000}")
+    private long deadlineMs;
+
+    @Value("${app.cancel.heartbeat-ms:2000}")
+    private long heartbeatMs;
+
+    @Value("${app.cancel.heartbeat-threads:2}")
+    private int heartbeatThreads;
+
+    @PostConstruct
+    void start() {
+        scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "generation-cancellation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Deadlines are mostly dropped long before they fire
+        scheduler.setRemoveOnCancelPolicy(true);
+
+        AtomicInteger counter = new AtomicInteger();
+        heartbeats = new ScheduledThreadPoolExecutor(Math.max(1, heartbeatThreads), runnable -> {
+            Thread thread = new Thread(runnable, "connection-heartbeat-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+        heartbeats.shutdownNow();
+    }
+
+    /**
+     * New token that cancels itself at the deadline. Close it once the work is
+     * done so the deadline timer is dropped.
+     */
+    public CancellationToken newToken() {
+        CancellationToken token = new CancellationToken();
+        token.onCancel(() -> {
+            metrics.generationCancelled(token.getReason());
+            logger.info("Generation cancelled: {}", token.getReason().getMessage());
+        });
+        if (deadlineMs > 0) {
+            token.setDeadline(scheduler.schedule(
+                () -> token.cancel(CancellationToken.Reason.DEADLINE_EXCEEDED), deadlineMs, TimeUnit.MILLISECONDS));
+        }
+        return token;
+    }
+
+    /**
+     * If the client asked for heartbeats, heartbeats the response until the watch
+     * is closed, cancelling the token if a write fails. Otherwise the watch does
+     * nothing. Close the watch before writing the real response.
+     */
+    public ConnectionWatch watchConnection(HttpServletRequest request, HttpServletResponse response,
+                                           CancellationToken token) {
+        ConnectionWatch watch = new ConnectionWatch(response, token);
+        if (heartbeatMs > 0 && "true".equalsIgnoreCase(request.getHeader(HEARTBEAT_HEADER))) {
+            watch.heartbeats = heartbeats.scheduleWithFixedDelay(watch::heartbeat, heartbeatMs, heartbeatMs,
+                TimeUnit.MILLISECONDS);
+        }
+        return watch;
+    }
+
+    public static class ConnectionWatch implements AutoCloseable {
+
+        private final HttpServletResponse response;
+        private final CancellationToken token;
+        private ScheduledFuture<?> heartbeats;
+        private boolean closed;
+
+        private ConnectionWatch(HttpServletResponse response, CancellationToken token) {
+            this.response = response;
+            this.token = token;
+        }
+
+        private synchronized void heartbeat() {
+            if (closed) {
+                return;
+            }
+            try {
+                if (!response.isCommitted()) {
+                    response.setStatus(HttpServletResponse.SC_OK);
+                    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                }
+                response.getOutputStream().write(' ');
+                response.flushBuffer();
+            } catch (IOException | IllegalStateException e) {
+                stop();
+                token.cancel(CancellationToken.Reason.CLIENT_DISCONNECTED);
+            }
+        }
+
+        /**
+         * Waits out a heartbeat in progress, then stops them
+         */
+        @Override
+        public synchronized void close() {
+            stop();
+        }
+
+        private void stop() {
+            closed = true;
+            if (heartbeats != null) {
+                heartbeats.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.aiimage.backend.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Cancellation signal for one unit of generation work. Whoever gives up on the
+ * work (a disconnected client, a cancel request, a passed deadline) cancels the
+ * token; the code doing the work registers callbacks to stop it (dequeue a
+ * scheduler waiter, abort an HTTP call, interrupt SD) and checks it between steps.
+ *
+ * The token for the current thread's work is bound with bind(), so backend
+ * clients deep in the call chain can find it without it being passed through
+ * every signature, the same way GenerationJobService.currentJob() works.
+ *
+ * Shared work (one render serving several identical requests) gets its own
+ * token that each interested caller joins; it is cancelled only once every
+ * caller that joined has been cancelled.
+ */
+public class CancellationToken implements AutoCloseable {
+
+    public enum Reason {
+        CLIENT_DISCONNECTED("Client disconnected"),
+        DEADLINE_EXCEEDED("Deadline exceeded"),
+        CANCELLED("Cancelled");
+
+        private final String message;
+
+        Reason(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private static final ThreadLocal<CancellationToken> current = new ThreadLocal<>();
+
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private Reason reason;
+    private boolean closed;
+    private int participants;
+    private Future<?> deadline;
+
+    /**
+     * Cancels the work and runs the registered callbacks on the calling thread.
+     * Only the first cancel counts; cancelling after close() does nothing.
+     *
+     * @return true if this call cancelled the token
+     */
+    public boolean cancel(Reason reason) {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (this.reason != null || closed) {
+                return false;
+            }
+            this.reason = reason;
+            toRun = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        cancelDeadline();
+        for (Runnable callback : toRun) {
+            callback.run();
+        }
+        return true;
+    }
+
+    public synchronized boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * Why the token was cancelled, or null
+     */
+    public synchronized Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * @throws GenerationCancelledException if the token has been cancelled
+     */
+    public void throwIfCancelled() {
+        Reason cancelled = getReason();
+        if (cancelled != null) {
+            throw new GenerationCancelledException(cancelled);
+        }
+    }
+
+    /**
+     * Runs the callback when the token is cancelled, straight away if it already
+     * is. Callbacks should only signal or abort, not block. Closing the returned
+     * registration drops the callback once it is no longer needed.
+     */
+    public Registration onCancel(Runnable callback) {
+        synchronized (this) {
+            if (reason == null) {
+                if (closed) {
+                    return () -> { };
+                }
+                callbacks.add(callback);
+                return () -> {
+                    synchronized (this) {
+                        callbacks.remove(callback);
+                    }
+                };
+            }
+        }
+        callback.run();
+        return () -> { };
+    }
+
+    /**
+     * Makes this token cancel once the caller's token and every other joined
+     * caller's token are cancelled. A null caller can't cancel, so it keeps the
+     * work alive for good.
+     *
+     * @return false if this token is already cancelled and can't be joined
+     */
+    public boolean join(CancellationToken caller) {
+        synchronized (this) {
+            if (reason != null) {
+                return false;
+            }
+            participants++;
+        }
+        if (caller != null) {
+            caller.onCancel(() -> {
+                boolean last;
+                synchronized (this) {
+                    last = --participants == 0;
+                }
+                if (last) {
+                    cancel(caller.getReason());
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Marks the work finished: pending callbacks are dropped and later cancels
+     * are ignored
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            callbacks.clear();
+        }
+        cancelDeadline();
+    }
+
+    /**
+     * Timer that cancels the token at its deadline; dropped once the token is
+     * cancelled or closed
+     */
+    synchronized void setDeadline(Future<?> deadline) {
+        this.deadline = deadline;
+    }
+
+    private void cancelDeadline() {
+        Future<?> timer;
+        synchronized (this) {
+            timer = deadline;
+            deadline = null;
+        }
+        if (timer != null) {
+            timer.cancel(false);
+        }
+    }
+
+    /**
+     * Token bound to the calling thread, or null
+     */
+    public static CancellationToken current() {
+        return current.get();
+    }
+
+    /**
+     * Binds the token (or none, for null) to the calling thread until the
+     * returned scope is closed, then restores whatever was bound before
+     */
+    public static Scope bind(CancellationToken token) {
+        CancellationToken previous = current.get();
+        if (token != null) {
+            current.set(token);
+        } else {
+            current.remove();
+        }
+        return () -> {
+            if (previous != null) {
+                current.set(previous);
+            } else {
+                current.remove();
+            }
+        };
+    }
+
+    /**
+     * A thread binding; closing it cannot fail
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * A registered onCancel callback; closing it cannot fail
+     */
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,160 @@
+package com.aiimage.backend.service;
+
+import org.springframework.web.client.HttpClientErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker for one model backend.
+ *
+ * CLOSED passes calls through and counts consecutive failures; reaching the
+ * threshold opens the circuit. OPEN rejects calls immediately with
+ * CircuitOpenException until openMs has passed, then lets a single probe call
+ * through (HALF_OPEN). The probe's outcome closes or re-opens the circuit.
+ * Client errors (4xx) and uploads the client failed to deliver are the caller's
+ * fault and count as successes. A cancelled call says nothing about the backend
+ * and counts as neither.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long rejected;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMs) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = openMs;
+    }
+
+    public <T> T call(Supplier<T> action) {
+        if (!tryAcquire()) {
+            throw new CircuitOpenException(name);
+        }
+
+        try {
+            T result = action.get();
+            recordSuccess();
+            return result;
+        } catch (HttpClientErrorException e) {
+            recordSuccess();
+            throw e;
+        } catch (GenerationCancelledException e) {
+            releaseProbe();
+            throw e;
+        } catch (RuntimeException | Error e) {
+            if (isUploadFailure(e)) {
+                recordSuccess();
+            } else {
+                recordFailure();
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isUploadFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ClientUploadException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reserves permission for one call. Callers that get true must report the
+     * outcome through recordSuccess or recordFailure.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMs) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+            logger.info("Circuit {} half-open, probing backend", name);
+        }
+
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (!probeInFlight) {
+                    probeInFlight = true;
+                    return true;
+                }
+                rejected++;
+                return false;
+            default:
+                rejected++;
+                return false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Circuit {} closed", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            logger.warn("Circuit {} open after {} consecutive failures, next probe in {}ms",
+                name, consecutiveFailures, openMs);
+        }
+    }
+
+    /**
+     * A health check found the backend up. An open circuit goes straight to
+     * HALF_OPEN so the next real call probes it; only that call's outcome closes
+     * the circuit, since a health endpoint can answer while generation still fails.
+     */
+    public synchronized void recordHealthy() {
+        if (state == State.OPEN) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+            logger.info("Circuit {} half-open after a healthy probe", name);
+        }
+    }
+
+    /**
+     * Gives up the half-open probe without recording an outcome
+     */
+    private synchronized void releaseProbe() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMs) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", getState().name());
+        stats.put("consecutiveFailures", consecutiveFailures);
+        stats.put("rejected", rejected);
+        return stats;
+    }
+}
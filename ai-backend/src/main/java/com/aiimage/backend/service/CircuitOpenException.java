@@ -0,0 +1,11 @@
+package com.aiimage.backend.service;
+
+/**
+ * Thrown instead of calling a backend whose circuit breaker is open
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    public CircuitOpenException(String backend) {
+        super(backend + " is unavailable (circuit open)");
+    }
+}
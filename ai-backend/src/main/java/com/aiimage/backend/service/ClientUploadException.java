@@ -0,0 +1,15 @@
+package com.aiimage.backend.service;
+
+import java.io.IOException;
+
+/**
+ * A client's upload could not be read while it was being forwarded to a backend
+ * (cut off, malformed or too large). It is the caller's fault, so circuit
+ * breakers do not count it against the backend.
+ */
+public class ClientUploadException extends IOException {
+
+    public ClientUploadException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,413 @@
+package com.aiimage.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resized and re-encoded variants of stored images, e.g. gallery thumbnails.
+ *
+ * Requested widths are rounded up to one of app.image.derived.widths so a
+ * handful of variants per image cover every client, and each variant is
+ * rendered once on a small bounded worker pool and kept on disk in an LRU cache
+ * capped at app.image.derived.max-bytes. Concurrent requests for the same
+ * variant share one render.
+ */
+@Service
+public class DerivedImageService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DerivedImageService.class);
+    private static final int MAX_REMEMBERED_WIDTHS = 10000;
+
+    private final ImageStorage imageStorage;
+    private final ImageFileIndex imageFileIndex;
+    private final ThreadPoolExecutor workers;
+    private final SingleFlight<ImageFileIndex.ImageFile> inFlight = new SingleFlight<>();
+
+    private final LinkedHashMap<String, ImageFileIndex.ImageFile> cache = new LinkedHashMap<>(256, 0.75f, true);
+    private long cachedBytes;
+    // Source image widths, so deciding whether a variant is needed doesn't re-read headers
+    private final LinkedHashMap<String, Integer> sourceWidths = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_REMEMBERED_WIDTHS;
+        }
+    };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong renders = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Value("${app.image.derived.widths:64,128,256,512}")
+    private int[] widths;
+
+    @Value("${app.image.derived.max-bytes:268435456}")
+    private long maxBytes;
+
+    @Value("${app.image.derived.jpeg-quality:0.8}")
+    private float jpegQuality;
+
+    @Value("${app.image.derived.render-timeout-ms:30000}")
+    private long renderTimeoutMs;
+
+    public DerivedImageService(ImageStorage imageStorage, ImageFileIndex imageFileIndex,
+                               @Value("${app.image.derived.workers:2}") int workerCount,
+                               @Value("${app.image.derived.queue-capacity:100}") int queueCapacity) {
+        this.imageStorage = imageStorage;
+        this.imageFileIndex = imageFileIndex;
+
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                Thread thread = new Thread(runnable, "image-derive-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Reloads variants rendered before a restart, oldest first
+     */
+    @PostConstruct
+    public void loadExisting() {
+        Arrays.sort(widths);
+
+        List<ImageFileIndex.ImageFile> existing = new ArrayList<>();
+        try {
+            for (Path path : imageStorage.listDerived()) {
+                ImageFileIndex.ImageFile variant = describe(path);
+                if (variant != null) {
+                    existing.add(variant);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to index derived images: {}", e.getMessage());
+        }
+
+        existing.sort(Comparator.comparingLong(ImageFileIndex.ImageFile::lastModified));
+        synchronized (this) {
+            existing.forEach(this::add);
+        }
+        logger.info("Indexed {} derived images ({} bytes)", cache.size(), cachedBytes);
+    }
+
+    /**
+     * Returns the variant of a stored image at the given width and format,
+     * rendering it if needed. A null width keeps the original size; a null
+     * format keeps the original format. Returns null if the source is missing.
+     *
+     * @throws IllegalArgumentException for an unsupported format or bad width
+     * @throws java.util.concurrent.RejectedExecutionException if the render queue is full
+     */
+    public ImageFileIndex.ImageFile derive(String filename, Integer width, String format) throws Exception {
+        ImageFileIndex.ImageFile source = imageFileIndex.lookup(filename);
+        if (source == null) {
+            return null;
+        }
+
+        String targetFormat = normalizeFormat(format != null ? format : extensionOf(filename));
+        int targetWidth = width != null ? snapWidth(width) : 0;
+        String name = baseNameOf(filename) + "_w" + targetWidth + "." + extensionFor(targetFormat);
+
+        ImageFileIndex.ImageFile cached = cached(name);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        // Nothing to shrink or transcode: the original is already the smallest answer
+        if (targetFormat.equals(normalizeFormat(extensionOf(filename)))
+                && (targetWidth == 0 || targetWidth >= sourceWidth(source))) {
+            return source;
+        }
+
+        return inFlight.execute(name, () -> {
+            ImageFileIndex.ImageFile rendered = cached(name);
+            return rendered != null ? rendered : render(source, name, targetWidth, targetFormat);
+        });
+    }
+
+    /**
+     * Drops a variant whose file has gone missing so the next request re-renders it
+     */
+    public synchronized void evict(String name) {
+        ImageFileIndex.ImageFile removed = cache.remove(name);
+        if (removed != null) {
+            cachedBytes -= removed.size();
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        return Map.of(
+            "entries", cache.size(),
+            "bytes", cachedBytes,
+            "hits", hits.get(),
+            "renders", renders.get(),
+            "evictions", evictions.get(),
+            "queued", workers.getQueue().size(),
+            "active", workers.getActiveCount()
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private synchronized ImageFileIndex.ImageFile cached(String name) {
+        return cache.get(name);
+    }
+
+    private int sourceWidth(ImageFileIndex.ImageFile source) throws IOException {
+        Integer known;
+        synchronized (this) {
+            known = sourceWidths.get(source.filename());
+        }
+        if (known != null) {
+            return known;
+        }
+        int width = widthOf(source.path());
+        rememberWidth(source.filename(), width);
+        return width;
+    }
+
+    private synchronized void rememberWidth(String filename, int width) {
+        sourceWidths.put(filename, width);
+    }
+
+    private ImageFileIndex.ImageFile render(ImageFileIndex.ImageFile source, String name,
+                                            int targetWidth, String format) throws Exception {
+        Future<ImageFileIndex.ImageFile> future = workers.submit(() -> {
+            long started = System.currentTimeMillis();
+            BufferedImage image = ImageIO.read(source.path().toFile());
+            if (image == null) {
+                throw new IOException("Unreadable image: " + source.filename());
+            }
+            rememberWidth(source.filename(), image.getWidth());
+
+            BufferedImage scaled = scale(image, targetWidth, !"png".equals(format));
+            // Timed out while rendering; the caller has already given up on it
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Render of " + name + " cancelled");
+            }
+            Path temp = imageStorage.newTempFile();
+            try {
+                write(scaled, format, temp);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+
+            ImageFileIndex.ImageFile variant = describe(imageStorage.storeDerived(temp, name));
+            if (variant == null) {
+                throw new IOException("Derived image disappeared: " + name);
+            }
+            renders.incrementAndGet();
+            logger.info("Rendered {} ({} bytes) in {} ms", name, variant.size(), System.currentTimeMillis() - started);
+
+            synchronized (this) {
+                add(variant);
+            }
+            return variant;
+        });
+
+        try {
+            return future.get(renderTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Frees the worker (or the queue slot) for renders someone is still waiting for
+            future.cancel(true);
+            workers.remove((Runnable) future);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Downscales to the target width (never up), halving in steps first so
+     * bilinear filtering keeps thin detail. Opaque output for formats without alpha.
+     */
+    private static BufferedImage scale(BufferedImage source, int targetWidth, boolean opaque) {
+        int width = targetWidth > 0 && targetWidth < source.getWidth() ? targetWidth : source.getWidth();
+        int height = Math.max(1, Math.round((float) source.getHeight() * width / source.getWidth()));
+        int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+
+            BufferedImage step = new BufferedImage(currentWidth, currentHeight, type);
+            Graphics2D graphics = step.createGraphics();
+            try {
+                if (opaque) {
+                    graphics.setColor(Color.WHITE);
+                    graphics.fillRect(0, 0, currentWidth, currentHeight);
+                }
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = step;
+        } while (currentWidth > width || currentHeight > height);
+
+        return current;
+    }
+
+    private void write(BufferedImage image, String format, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if ("jpeg".equals(format)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Must hold the monitor
+     */
+    private void add(ImageFileIndex.ImageFile variant) {
+        ImageFileIndex.ImageFile previous = cache.put(variant.filename(), variant);
+        if (previous != null) {
+            cachedBytes -= previous.size();
+        }
+        cachedBytes += variant.size();
+
+        Iterator<ImageFileIndex.ImageFile> eldest = cache.values().iterator();
+        while (cachedBytes > maxBytes && eldest.hasNext()) {
+            ImageFileIndex.ImageFile evicted = eldest.next();
+            if (evicted == variant) {
+                break;
+            }
+            eldest.remove();
+            cachedBytes -= evicted.size();
+            evictions.incrementAndGet();
+            try {
+                Files.deleteIfExists(evicted.path());
+            } catch (IOException e) {
+                logger.warn("Failed to remove derived image {}: {}", evicted.filename(), e.getMessage());
+            }
+        }
+    }
+
+    private int snapWidth(int requested) {
+        if (requested <= 0) {
+            throw new IllegalArgumentException("Width must be positive");
+        }
+        for (int width : widths) {
+            if (width >= requested) {
+                return width;
+            }
+        }
+        return widths[widths.length - 1];
+    }
+
+    /**
+     * Accepts any format the JDK (or an ImageIO plugin on the classpath) can write
+     */
+    private static String normalizeFormat(String format) {
+        String normalized = format.toLowerCase();
+        if ("jpg".equals(normalized)) {
+            normalized = "jpeg";
+        }
+        if (!ImageIO.getImageWritersByFormatName(normalized).hasNext()) {
+            throw new IllegalArgumentException("Unsupported image format: " + format);
+        }
+        return normalized;
+    }
+
+    private static String extensionFor(String format) {
+        return "jpeg".equals(format) ? "jpg" : format;
+    }
+
+    private static ImageFileIndex.ImageFile describe(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            String name = path.getFileName().toString();
+            return new ImageFileIndex.ImageFile(name, path, attributes.size(),
+                attributes.lastModifiedTime().toMillis(), "image/" + normalizeContentSubtype(extensionOf(name)));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads only the image header
+     */
+    private static int widthOf(Path path) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(path.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unreadable image: " + path.getFileName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return reader.getWidth(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static String normalizeContentSubtype(String extension) {
+        return "jpg".equals(extension) ? "jpeg" : extension;
+    }
+
+    private static String extensionOf(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot >= 0 ? filename.substring(dot + 1).toLowerCase() : "png";
+    }
+
+    private static String baseNameOf(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return dot >= 0 ? filename.substring(0, dot) : filename;
+    }
+}
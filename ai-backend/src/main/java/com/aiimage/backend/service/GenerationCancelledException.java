@@ -0,0 +1,19 @@
+package com.aiimage.backend.service;
+
+/**
+ * Thrown when generation work stops because its CancellationToken was cancelled.
+ * Not a backend failure, so circuit breakers and the SD pool don't count it.
+ */
+public class GenerationCancelledException extends RuntimeException {
+
+    private final CancellationToken.Reason reason;
+
+    public GenerationCancelledException(CancellationToken.Reason reason) {
+        super(reason.getMessage());
+        this.reason = reason;
+    }
+
+    public CancellationToken.Reason getReason() {
+        return reason;
+    }
+}
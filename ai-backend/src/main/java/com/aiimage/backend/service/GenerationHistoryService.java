@@ -0,0 +1,241 @@
+package com.aiimage.backend.service;
+
+import com.aiimage.backend.model.GenerationRecord;
+import com.aiimage.backend.repository.GenerationRecordRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent history of finished generations.
+ *
+ * Request threads only enqueue records; a single writer thread drains the queue
+ * and inserts whatever has accumulated (up to app.history.batch-size) in one
+ * transaction, so the database is never on the request path and inserts batch
+ * naturally under load. If the queue is full, records are dropped rather than
+ * slowing down generation. A batch that fails to insert is retried one record
+ * at a time, so a bad record does not take the rest of its batch with it.
+ */
+@Service
+public class GenerationHistoryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationHistoryService.class);
+
+    private final GenerationRecordRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<GenerationRecord> pending;
+    private final int batchSize;
+    private final Thread writer;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    @Autowired
+    private GenerationResultCache resultCache;
+
+    @Value("${app.history.cache-warmup-entries:1000}")
+    private int cacheWarmupEntries;
+
+    public GenerationHistoryService(GenerationRecordRepository repository,
+                                    TransactionTemplate transactionTemplate,
+                                    @Value("${app.history.queue-capacity:10000}") int queueCapacity,
+                                    @Value("${app.history.batch-size:50}") int batchSize) {
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.pending = new LinkedBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+
+        this.writer = new Thread(this::writeLoop, "history-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public void recordCompleted(String type, String prompt, String cacheKey, String filename,
+                                Long fileSize, long startedAt) {
+        enqueue(new GenerationRecord(type, truncate(prompt, GenerationRecord.MAX_PROMPT_LENGTH), hashPrompt(prompt),
+            cacheKey, filename, fileSize, GenerationRecord.Status.COMPLETED, null, System.currentTimeMillis(),
+            System.currentTimeMillis() - startedAt));
+    }
+
+    public void recordFailed(String type, String prompt, String error, long startedAt) {
+        enqueue(new GenerationRecord(type, truncate(prompt, GenerationRecord.MAX_PROMPT_LENGTH), hashPrompt(prompt),
+            null, null, null, GenerationRecord.Status.FAILED, truncate(error, GenerationRecord.MAX_ERROR_LENGTH),
+            System.currentTimeMillis(), System.currentTimeMillis() - startedAt));
+    }
+
+    /**
+     * Newest-first page of records older than the cursor (null for the first page).
+     * The returned nextCursor is null once there are no more records.
+     */
+    public Map<String, Object> getPage(String cursor, GenerationRecord.Status status, int limit) {
+        long createdAt = Long.MAX_VALUE;
+        long id = Long.MAX_VALUE;
+
+        if (cursor != null && !cursor.isBlank()) {
+            String[] parts = cursor.split("_", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            createdAt = Long.parseLong(parts[0]);
+            id = Long.parseLong(parts[1]);
+        }
+
+        PageRequest page = PageRequest.ofSize(limit);
+        List<GenerationRecord> records = status == null
+            ? repository.findPageBefore(createdAt, id, page)
+            : repository.findPageBeforeWithStatus(status, createdAt, id, page);
+
+        String nextCursor = null;
+        if (records.size() == limit) {
+            GenerationRecord last = records.get(records.size() - 1);
+            nextCursor = last.getCreatedAt() + "_" + last.getId();
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("items", records);
+        result.put("nextCursor", nextCursor);
+        return result;
+    }
+
+    public List<GenerationRecord> findByPrompt(String prompt, int limit) {
+        return repository.findByPromptHashOrderByCreatedAtDesc(hashPrompt(prompt), PageRequest.ofSize(limit));
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+            "pending", pending.size(),
+            "written", written.get(),
+            "dropped", dropped.get()
+        );
+    }
+
+    /**
+     * Refills the in-memory result cache from recent history so renders made
+     * before a restart are reused without scanning the image directory
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmResultCache() {
+        List<GenerationRecord> recent = repository.findRecentCacheable(
+            GenerationRecord.Status.COMPLETED, PageRequest.ofSize(cacheWarmupEntries));
+
+        // Oldest first, so the most recent renders end up most recently used
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            GenerationRecord record = recent.get(i);
+            resultCache.restore(record.getCacheKey(), record.getFilename(),
+                record.getFileSize() != null ? record.getFileSize() : 0);
+        }
+        logger.info("Warmed result cache with {} entries from generation history", recent.size());
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // No interrupt: it could land mid-write and close the database file channel
+        running = false;
+        writer.join(5000);
+        // Anything that arrived after the writer stopped
+        flush(new ArrayList<>());
+    }
+
+    private void enqueue(GenerationRecord record) {
+        if (!pending.offer(record)) {
+            dropped.incrementAndGet();
+            logger.warn("Generation history queue full, dropping record for prompt hash {}", record.getPromptHash());
+        }
+    }
+
+    private void writeLoop() {
+        List<GenerationRecord> batch = new ArrayList<>(batchSize);
+
+        while (running) {
+            try {
+                GenerationRecord first = pending.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pending.drainTo(batch, batchSize - 1);
+                save(batch);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<GenerationRecord> batch) {
+        while (pending.drainTo(batch, batchSize) > 0) {
+            save(batch);
+            batch.clear();
+        }
+    }
+
+    private void save(List<GenerationRecord> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> repository.saveAll(batch));
+            written.addAndGet(batch.size());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to write {} generation records, retrying one at a time: {}",
+                batch.size(), e.getMessage());
+            saveEach(batch);
+        }
+    }
+
+    /**
+     * Writes records in separate transactions so one bad record only loses itself
+     */
+    private void saveEach(List<GenerationRecord> batch) {
+        for (GenerationRecord record : batch) {
+            // The failed batch already gave these ids, so save fresh copies
+            GenerationRecord copy = new GenerationRecord(record.getType(), record.getPrompt(),
+                record.getPromptHash(), record.getCacheKey(), record.getFilename(), record.getFileSize(),
+                record.getStatus(), record.getError(), record.getCreatedAt(), record.getDurationMs());
+            try {
+                transactionTemplate.executeWithoutResult(status -> repository.save(copy));
+                written.incrementAndGet();
+            } catch (RuntimeException e) {
+                dropped.incrementAndGet();
+                logger.error("Failed to write generation record for prompt hash {}: {}",
+                    record.getPromptHash(), e.getMessage());
+            }
+        }
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return value != null && value.length() > maxLength ? value.substring(0, maxLength) : value;
+    }
+
+    /**
+     * Hash of the whitespace-normalized prompt, matching how prompts are normalized for rendering
+     */
+    private static String hashPrompt(String prompt) {
+        String normalized = prompt.trim().replaceAll("\\s+", " ");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(normalized.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.aiimage.backend.service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Tracks a single asynchronous generation request from submission to completion
+ */
+public class GenerationJob {
+
+    /**
+     * PENDING jobs are deferred: they are not queued until a client asks for them.
+     * CANCELLED jobs were stopped by a cancel request or their deadline.
+     */
+    public enum Status {
+        PENDING, QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    private final String id;
+    private final String type;
+    private final String prompt;
+    private final long createdAt;
+    private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Object result;
+    private volatile String error;
+    private volatile Long startedAt;
+    private volatile Long completedAt;
+    private volatile String backendUrl;
+    private volatile CancellationToken token;
+    private volatile CompletableFuture<GenerationScheduler.Permit> grant;
+
+    public GenerationJob(String id, String type, String prompt) {
+        this.id = id;
+        this.type = type;
+        this.prompt = prompt;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    void markPending() {
+        this.status = Status.PENDING;
+    }
+
+    /**
+     * Moves a deferred job to QUEUED; false if it already left PENDING
+     */
+    synchronized boolean markQueued() {
+        if (status != Status.PENDING) {
+            return false;
+        }
+        this.status = Status.QUEUED;
+        return true;
+    }
+
+    /**
+     * Fails a deferred job nobody asked for; false if it already left PENDING
+     */
+    synchronized boolean markAbandoned(String error) {
+        if (status != Status.PENDING) {
+            return false;
+        }
+        fail(error);
+        return true;
+    }
+
+    /**
+     * Cancels a deferred job before it is ever queued; false if it already left PENDING
+     */
+    synchronized boolean cancelPending(CancellationToken.Reason reason) {
+        if (status != Status.PENDING) {
+            return false;
+        }
+        markCancelled(reason);
+        return true;
+    }
+
+    void markRunning() {
+        if (isFinished()) {
+            // Work tracked from elsewhere can finish before its grant callback runs
+            return;
+        }
+        this.startedAt = System.currentTimeMillis();
+        this.status = Status.RUNNING;
+    }
+
+    void complete(Object result) {
+        this.result = result;
+        this.completedAt = System.currentTimeMillis();
+        this.status = Status.COMPLETED;
+        finish();
+    }
+
+    void fail(String error) {
+        this.error = error;
+        this.completedAt = System.currentTimeMillis();
+        this.status = Status.FAILED;
+        finish();
+    }
+
+    void markCancelled(CancellationToken.Reason reason) {
+        this.error = reason.getMessage();
+        this.completedAt = System.currentTimeMillis();
+        this.status = Status.CANCELLED;
+        finish();
+    }
+
+    private void finish() {
+        CancellationToken finished = token;
+        if (finished != null) {
+            finished.close();
+        }
+        future.complete(result);
+    }
+
+    void setBackendUrl(String backendUrl) {
+        this.backendUrl = backendUrl;
+    }
+
+    /**
+     * Token cancelling this job's work, or null if it can't be cancelled
+     */
+    CancellationToken getToken() {
+        return token;
+    }
+
+    void setToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * The job's place in the scheduler queue, or null before it was queued
+     */
+    CompletableFuture<GenerationScheduler.Permit> getGrant() {
+        return grant;
+    }
+
+    void setGrant(CompletableFuture<GenerationScheduler.Permit> grant) {
+        this.grant = grant;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    /**
+     * Completes once the job has succeeded, failed or been cancelled, never exceptionally
+     */
+    public CompletableFuture<Object> getFuture() {
+        return future;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Long getStartedAt() {
+        return startedAt;
+    }
+
+    public Long getCompletedAt() {
+        return completedAt;
+    }
+
+    /**
+     * SD instance rendering this job, or null if not known (e.g. the job is
+     * waiting on a render started by another request)
+     */
+    public String getBackendUrl() {
+        return backendUrl;
+    }
+}
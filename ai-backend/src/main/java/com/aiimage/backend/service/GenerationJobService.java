@@ -0,0 +1,273 @@
+package com.aiimage.backend.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class GenerationJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationJobService.class);
+
+    private static final ThreadLocal<GenerationJob> currentJob = new ThreadLocal<>();
+
+    private final AsyncTaskExecutor generationExecutor;
+    private final GenerationScheduler generationScheduler;
+    private final CancellationService cancellationService;
+    private final Map<String, GenerationJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final Map<String, Callable<Object>> deferredStarts = new ConcurrentHashMap<>();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    @Value("${app.jobs.retention-ms:600000}")
+    private long retentionMs;
+
+    @Value("${app.jobs.deferred-timeout-ms:120000}")
+    private long deferredTimeoutMs;
+
+    public GenerationJobService(@Qualifier("generationExecutor") AsyncTaskExecutor generationExecutor,
+                                GenerationScheduler generationScheduler,
+                                CancellationService cancellationService) {
+        this.generationExecutor = generationExecutor;
+        this.generationScheduler = generationScheduler;
+        this.cancellationService = cancellationService;
+    }
+
+    /**
+     * Starts a generation task on the worker pool and returns immediately. The task
+     * holds no scheduler permit of its own: it takes one where it renders, passing
+     * its requester the same way a synchronous request does, so a job sharing
+     * someone else's render never holds a permit while that render waits for one.
+     * The job stays QUEUED, with its place in the scheduler queue, until then.
+     */
+    public GenerationJob submit(String type, String prompt, Callable<Object> task) {
+        GenerationJob job = newJob(type, prompt);
+        jobs.put(job.getId(), job);
+        start(job, task);
+
+        logger.info("Queued {} job {}", type, job.getId());
+        return job;
+    }
+
+    /**
+     * Registers a job whose result is already known, e.g. a cached render, so
+     * clients can collect it like any other without it ever being queued
+     */
+    public GenerationJob completed(String type, String prompt, Object result) {
+        GenerationJob job = new GenerationJob(UUID.randomUUID().toString(), type, prompt);
+        job.complete(result);
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * Registers a job that is only started once a client claims it, by polling it or
+     * subscribing to its events. Jobs still unclaimed after app.jobs.deferred-timeout-ms
+     * fail without ever running, so follow-up work a client walks away from costs nothing.
+     */
+    public GenerationJob defer(String type, String prompt, Callable<Object> task) {
+        GenerationJob job = newJob(type, prompt);
+        job.markPending();
+        deferredStarts.put(job.getId(), task);
+        jobs.put(job.getId(), job);
+
+        logger.info("Deferred {} job {}", type, job.getId());
+        return job;
+    }
+
+    /**
+     * Starts a deferred job the first time a client asks for it; no-op for any
+     * other job
+     */
+    public void claim(GenerationJob job) {
+        if (job.getStatus() != GenerationJob.Status.PENDING || !job.markQueued()) {
+            return;
+        }
+        Callable<Object> task = deferredStarts.remove(job.getId());
+        if (task == null) {
+            return;
+        }
+
+        start(job, task);
+        logger.info("Queued deferred {} job {}", job.getType(), job.getId());
+    }
+
+    /**
+     * Stops a job: a deferred job is dropped, a queued one leaves the scheduler
+     * queue and a running one has its backend calls aborted
+     *
+     * @return false if the job had already finished
+     */
+    public boolean cancel(GenerationJob job) {
+        if (job.cancelPending(CancellationToken.Reason.CANCELLED)) {
+            deferredStarts.remove(job.getId());
+            logger.info("Cancelled deferred {} job {}", job.getType(), job.getId());
+            return true;
+        }
+        CancellationToken token = job.getToken();
+        return token != null && token.cancel(CancellationToken.Reason.CANCELLED);
+    }
+
+    private GenerationJob newJob(String type, String prompt) {
+        GenerationJob job = new GenerationJob(UUID.randomUUID().toString(), type, prompt);
+        job.setToken(cancellationService.newToken());
+        return job;
+    }
+
+    private void start(GenerationJob job, Callable<Object> task) {
+        try {
+            generationExecutor.execute(() -> run(job, task));
+        } catch (TaskRejectedException e) {
+            logger.warn("Generation worker queue full, failing {} job {}", job.getType(), job.getId());
+            job.fail("Generation queue is full, try again later");
+        }
+    }
+
+    /**
+     * Registers a job for work that already runs elsewhere (e.g. the 3D pipeline)
+     * so it can be polled like any other job without occupying a worker thread.
+     * The token is the one the work was started under; cancelling the job cancels it.
+     * The job stays QUEUED until the work's scheduler grant completes, or is
+     * RUNNING straight away without one.
+     */
+    public GenerationJob track(String type, String prompt, CancellationToken token,
+                               CompletableFuture<GenerationScheduler.Permit> grant, CompletableFuture<?> work) {
+        GenerationJob job = new GenerationJob(UUID.randomUUID().toString(), type, prompt);
+        job.setToken(token);
+        jobs.put(job.getId(), job);
+        if (grant != null) {
+            job.setGrant(grant);
+            grant.thenRun(job::markRunning);
+        } else {
+            job.markRunning();
+        }
+
+        work.whenComplete((result, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+                if (cause instanceof GenerationCancelledException cancelled) {
+                    logger.info("Cancelled {} job {}: {}", job.getType(), job.getId(), cause.getMessage());
+                    job.markCancelled(cancelled.getReason());
+                    return;
+                }
+                logger.error("Job {} failed: {}", job.getId(), cause.getMessage());
+                job.fail(cause.getMessage());
+            } else {
+                job.complete(result);
+                logger.info("Completed {} job {}", job.getType(), job.getId());
+            }
+        });
+
+        logger.info("Tracking {} job {}", type, job.getId());
+        return job;
+    }
+
+    public GenerationJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Estimated number of requests the scheduler will start before this job
+     * (0 = next to run); see GenerationScheduler.getPosition
+     */
+    public int getQueuePosition(GenerationJob job) {
+        CompletableFuture<GenerationScheduler.Permit> grant = job.getGrant();
+        return grant != null ? generationScheduler.getPosition(grant) : 0;
+    }
+
+    /**
+     * Job being run by the calling worker thread, or null outside a job
+     */
+    static GenerationJob currentJob() {
+        return currentJob.get();
+    }
+
+    /**
+     * Jobs waiting for a worker thread; always 0 on virtual threads
+     */
+    public int getQueueDepth() {
+        return generationExecutor instanceof ThreadPoolTaskExecutor pool
+            ? pool.getThreadPoolExecutor().getQueue().size() : 0;
+    }
+
+    public int getActiveCount() {
+        return running.get();
+    }
+
+    /**
+     * Deferred jobs waiting to be claimed
+     */
+    public int getDeferredCount() {
+        return deferredStarts.size();
+    }
+
+    /**
+     * Deferred jobs dropped because no client claimed them in time
+     */
+    public long getAbandonedCount() {
+        return abandoned.get();
+    }
+
+    private void run(GenerationJob job, Callable<Object> task) {
+        CancellationToken token = job.getToken();
+        if (token.isCancelled()) {
+            // Cancelled just as its permit was granted
+            job.markCancelled(token.getReason());
+            return;
+        }
+
+        // GenerationScheduler.call marks the job RUNNING once its render is granted a permit
+        currentJob.set(job);
+        running.incrementAndGet();
+        logger.info("Started {} job {}", job.getType(), job.getId());
+
+        try (CancellationToken.Scope scope = CancellationToken.bind(token)) {
+            job.complete(task.call());
+            logger.info("Completed {} job {}", job.getType(), job.getId());
+        } catch (GenerationCancelledException e) {
+            logger.info("Cancelled {} job {}: {}", job.getType(), job.getId(), e.getMessage());
+            job.markCancelled(e.getReason());
+        } catch (Exception e) {
+            logger.error("Job {} failed: {}", job.getId(), e.getMessage());
+            job.fail(e.getMessage());
+        } finally {
+            running.decrementAndGet();
+            currentJob.remove();
+        }
+    }
+
+    /**
+     * Drops finished jobs once clients have had time to collect the result
+     */
+    @Scheduled(fixedDelayString = "${app.jobs.cleanup-interval-ms:60000}")
+    public void purgeExpiredJobs() {
+        long now = System.currentTimeMillis();
+        for (GenerationJob job : jobs.values()) {
+            if (job.getStatus() == GenerationJob.Status.PENDING && job.getCreatedAt() < now - deferredTimeoutMs
+                    && job.markAbandoned("Not requested in time")) {
+                deferredStarts.remove(job.getId());
+                abandoned.incrementAndGet();
+                logger.info("Dropped unclaimed {} job {}", job.getType(), job.getId());
+            }
+        }
+
+        long cutoff = now - retentionMs;
+        jobs.values().removeIf(job -> job.isFinished() && job.getCompletedAt() < cutoff);
+    }
+}
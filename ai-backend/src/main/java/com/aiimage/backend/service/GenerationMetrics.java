@@ -0,0 +1,126 @@
+package com.aiimage.backend.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micrometer meters for the generation hot paths, scraped from /actuator/prometheus.
+ * End-to-end latency per endpoint is Spring's own http.server.requests timer; the
+ * timers here split it into scheduler wait, SD call, image decode, publish and
+ * TripoSR call. Histogram buckets are switched on per name prefix in
+ * application.properties.
+ */
+@Component
+public class GenerationMetrics {
+
+    private final MeterRegistry registry;
+    private final Timer imageDecode;
+    private final Timer imageStore;
+    private final Counter partialModelResults;
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public GenerationMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.imageDecode = Timer.builder("image.decode")
+            .description("Decoding one base64 image from an SD response to a temp file")
+            .register(registry);
+        this.imageStore = Timer.builder("image.store")
+            .description("Moving a decoded image into sharded storage and indexing it")
+            .register(registry);
+        this.partialModelResults = Counter.builder("generation.3d.partial")
+            .description("Text-to-3D requests answered with an image but no mesh (206)")
+            .register(registry);
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    /**
+     * Records one txt2img call, including streaming the response to disk.
+     * outcome is success, error, circuit_open, rejected or cancelled.
+     */
+    public void stableDiffusionCall(Timer.Sample sample, String outcome) {
+        sample.stop(Timer.builder("backend.sd.request")
+            .description("Stable Diffusion txt2img calls")
+            .tag("outcome", outcome)
+            .register(registry));
+    }
+
+    /**
+     * Records one /generate-3d call; outcome is success, error, circuit_open, rejected or cancelled
+     */
+    public void tripoSRCall(Timer.Sample sample, String outcome) {
+        sample.stop(Timer.builder("backend.triposr.request")
+            .description("TripoSR generate-3d calls")
+            .tag("outcome", outcome)
+            .register(registry));
+    }
+
+    /**
+     * Records how long a request waited for a scheduler permit
+     */
+    public void queueWait(Timer.Sample sample, GenerationScheduler.Lane lane) {
+        sample.stop(Timer.builder("generation.queue.wait")
+            .description("Time from enqueue to scheduler permit")
+            .tag("lane", lane.name().toLowerCase())
+            .register(registry));
+    }
+
+    public Timer imageDecode() {
+        return imageDecode;
+    }
+
+    public Timer imageStore() {
+        return imageStore;
+    }
+
+    /**
+     * Counts an image request answered with the placeholder; reason is
+     * circuit_open or backend_failure
+     */
+    public void placeholderFallback(String reason) {
+        registry.counter("generation.placeholder", "reason", reason).increment();
+    }
+
+    /**
+     * Counts generation requests given up on; reason is client_disconnected,
+     * deadline_exceeded or cancelled
+     */
+    public void generationCancelled(CancellationToken.Reason reason) {
+        registry.counter("generation.cancelled", "reason", reason.name().toLowerCase()).increment();
+    }
+
+    public void partialModelResult() {
+        partialModelResults.increment();
+    }
+
+    /**
+     * Counts mesh bytes sent to clients; source is cache or triposr
+     */
+    public void modelDownloadBytes(String source, long bytes) {
+        registry.counter("model.download.bytes", "source", source).increment(bytes);
+    }
+
+    /**
+     * Gauge of generations of this type ("image" or "3d") that have started and
+     * not finished; callers increment and decrement it around the work
+     */
+    public AtomicInteger inFlight(String type) {
+        return inFlight.computeIfAbsent(type, key -> {
+            AtomicInteger count = new AtomicInteger();
+            Gauge.builder("generation.in.flight", count, AtomicInteger::get)
+                .description("Generations started and not yet finished")
+                .tag("type", key)
+                .register(registry);
+            return count;
+        });
+    }
+}
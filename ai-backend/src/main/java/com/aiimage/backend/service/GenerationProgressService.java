@@ -0,0 +1,205 @@
+package com.aiimage.backend.service;
+
+import com.aiimage.backend.dto.GenerationJobResponse;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams progress of in-flight jobs to SSE subscribers.
+ *
+ * A single poller thread wakes every app.progress.poll-ms, calls
+ * /sdapi/v1/progress once on each SD instance that a subscribed job is rendering
+ * on, and fans the result out to every subscriber. The number of progress calls
+ * therefore depends on the number of busy instances, not on the number of
+ * clients watching. Queued jobs report their position in the scheduler queue instead.
+ */
+@Service
+public class GenerationProgressService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationProgressService.class);
+
+    private final Map<String, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService poller;
+
+    @Autowired
+    private GenerationJobService generationJobService;
+
+    @Autowired
+    @Qualifier("healthCheckRestTemplate")
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.progress.poll-ms:1000}")
+    private long pollMs;
+
+    @Value("${app.progress.sse-timeout-ms:600000}")
+    private long sseTimeoutMs;
+
+    @PostConstruct
+    void start() {
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::poll, pollMs, pollMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        poller.shutdownNow();
+    }
+
+    /**
+     * Opens an event stream for the job. The first event is sent right away; a
+     * final "complete" event carries the job result and closes the stream.
+     */
+    public SseEmitter subscribe(GenerationJob job) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        List<SseEmitter> emitters = subscribers.computeIfAbsent(job.getId(), id -> new CopyOnWriteArrayList<>());
+        emitters.add(emitter);
+
+        Runnable remove = () -> unsubscribe(job.getId(), emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(error -> remove.run());
+
+        // Finish as soon as the job does rather than on the next poll
+        job.getFuture().whenComplete((result, error) -> sendComplete(job, emitter));
+
+        if (!job.isFinished()) {
+            send(job.getId(), emitter, "progress", snapshot(job, Map.of()));
+        }
+        return emitter;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(List::size).sum();
+    }
+
+    private void poll() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+
+        try {
+            Map<String, JsonNode> progressByBackend = new HashMap<>();
+
+            for (String jobId : subscribers.keySet()) {
+                GenerationJob job = generationJobService.getJob(jobId);
+                if (job == null) {
+                    List<SseEmitter> orphaned = subscribers.remove(jobId);
+                    if (orphaned != null) {
+                        orphaned.forEach(SseEmitter::complete);
+                    }
+                    continue;
+                }
+                if (job.isFinished()) {
+                    continue;
+                }
+
+                String backendUrl = backendFor(job);
+                JsonNode progress = null;
+                if (backendUrl != null) {
+                    progress = progressByBackend.computeIfAbsent(backendUrl, this::fetchProgress);
+                }
+
+                Map<String, Object> event = snapshot(job, progressFields(progress));
+                for (SseEmitter emitter : subscribers.getOrDefault(jobId, List.of())) {
+                    send(jobId, emitter, "progress", event);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Progress poll failed: {}", e.getMessage());
+        }
+    }
+
+    private String backendFor(GenerationJob job) {
+        if (job.getStatus() != GenerationJob.Status.RUNNING) {
+            return null;
+        }
+        // Jobs sharing someone else's render, and 3D jobs, don't know the node; another
+        // render's progress on the same node would be wrong, so they get none
+        return job.getBackendUrl();
+    }
+
+    private JsonNode fetchProgress(String backendUrl) {
+        try {
+            String body = restTemplate.getForObject(backendUrl + "/sdapi/v1/progress?skip_current_image=true", String.class);
+            return body != null ? objectMapper.readTree(body) : null;
+        } catch (Exception e) {
+            logger.debug("Progress request to {} failed: {}", backendUrl, e.getMessage());
+            return null;
+        }
+    }
+
+    private Map<String, Object> progressFields(JsonNode progress) {
+        if (progress == null) {
+            return Map.of();
+        }
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("progress", Math.round(progress.path("progress").asDouble() * 100));
+        fields.put("etaSeconds", Math.round(progress.path("eta_relative").asDouble()));
+        // job_count includes the render in progress
+        fields.put("backendQueue", Math.max(0, progress.path("state").path("job_count").asInt() - 1));
+        return fields;
+    }
+
+    private Map<String, Object> snapshot(GenerationJob job, Map<String, Object> progressFields) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("jobId", job.getId());
+        event.put("status", job.getStatus().name());
+        if (job.getStatus() == GenerationJob.Status.QUEUED) {
+            event.put("queuePosition", generationJobService.getQueuePosition(job));
+        }
+        event.putAll(progressFields);
+        return event;
+    }
+
+    private void sendComplete(GenerationJob job, SseEmitter emitter) {
+        if (send(job.getId(), emitter, "complete", GenerationJobResponse.from(job))) {
+            emitter.complete();
+        }
+    }
+
+    private boolean send(String jobId, SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // Client went away or the stream already completed
+            unsubscribe(jobId, emitter);
+            return false;
+        }
+    }
+
+    private void unsubscribe(String jobId, SseEmitter emitter) {
+        subscribers.computeIfPresent(jobId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+}
@@ -0,0 +1,19 @@
+package com.aiimage.backend.service;
+
+/**
+ * Thrown when the generation scheduler will not queue a request; clients
+ * should retry after retryAfterSeconds
+ */
+public class GenerationRejectedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public GenerationRejectedException(long retryAfterSeconds) {
+        super("Too many queued generation requests, retry in " + retryAfterSeconds + "s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
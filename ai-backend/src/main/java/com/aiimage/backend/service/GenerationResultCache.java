@@ -0,0 +1,99 @@
+package com.aiimage.backend.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed index from txt2img parameters to PNGs already in the image
+ * storage directory. Eviction only drops index entries; the files stay on disk.
+ */
+@Component
+public class GenerationResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationResultCache.class);
+
+    private final LinkedHashMap<String, CacheEntry> index = new LinkedHashMap<>(256, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long totalBytes;
+
+    @Autowired
+    private ImageFileIndex imageFileIndex;
+
+    @Value("${app.cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${app.cache.max-bytes:536870912}")
+    private long maxBytes;
+
+    private record CacheEntry(String filename, long sizeBytes) {}
+
+    /**
+     * Returns the stored filename for this render, or null on a miss. Entries whose
+     * file has been removed from disk are dropped and reported as misses.
+     */
+    public synchronized String lookup(Txt2ImgParams params) {
+        String key = params.cacheKey();
+        CacheEntry entry = index.get(key);
+
+        if (entry != null && imageFileIndex.lookup(entry.filename()) != null) {
+            hits.incrementAndGet();
+            logger.info("Result cache hit for key {}", key);
+            return entry.filename();
+        }
+
+        if (entry != null) {
+            remove(key);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(Txt2ImgParams params, String filename, long sizeBytes) {
+        restore(params.cacheKey(), filename, sizeBytes);
+    }
+
+    /**
+     * Re-adds an entry by its cache key, e.g. from persisted generation history
+     */
+    public synchronized void restore(String key, String filename, long sizeBytes) {
+        remove(key);
+
+        index.put(key, new CacheEntry(filename, sizeBytes));
+        totalBytes += sizeBytes;
+        evictIfNeeded();
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        return Map.of(
+            "entries", index.size(),
+            "bytes", totalBytes,
+            "hits", hits.get(),
+            "misses", misses.get()
+        );
+    }
+
+    private void remove(String key) {
+        CacheEntry previous = index.remove(key);
+        if (previous != null) {
+            totalBytes -= previous.sizeBytes();
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, CacheEntry>> eldest = index.entrySet().iterator();
+        while ((index.size() > maxEntries || totalBytes > maxBytes) && eldest.hasNext()) {
+            CacheEntry evicted = eldest.next().getValue();
+            totalBytes -= evicted.sizeBytes();
+            eldest.remove();
+        }
+    }
+}
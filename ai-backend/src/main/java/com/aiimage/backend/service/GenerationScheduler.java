@@ -0,0 +1,382 @@
+package com.aiimage.backend.service;
+
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission control and fair ordering for GPU work.
+ *
+ * At most app.scheduler.max-concurrent generations hold a permit at once; the
+ * rest wait here rather than in the SD backend's own FIFO queue. Waiters are
+ * granted permits by lane first (INTERACTIVE always before BATCH, so batch work
+ * only uses spare capacity) and, within a lane, by start-time fair queuing over
+ * clients: each client's requests are tagged in virtual time by 1/weight, so a
+ * client submitting in bulk cannot push others back. Weights default to 1 and
+ * can be raised per client in app.scheduler.client-weights.
+ *
+ * A request is rejected with GenerationRejectedException, carrying a Retry-After
+ * estimate, when its lane or its client already has too many waiters.
+ */
+@Service
+public class GenerationScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(GenerationScheduler.class);
+
+    public enum Lane { INTERACTIVE, BATCH }
+
+    /**
+     * Who is asking and how urgently. clientId is an API key or client address.
+     */
+    public record Requester(String clientId, Lane lane) {
+    }
+
+    private final int maxConcurrent;
+    private final int maxQueuedPerClient;
+    private final Map<Lane, Integer> laneCapacity = new EnumMap<>(Lane.class);
+    private final Map<String, Double> clientWeights = new HashMap<>();
+    private final Map<Lane, LaneQueue> lanes = new EnumMap<>(Lane.class);
+
+    private int active;
+    private long granted;
+    private long rejected;
+    private double averageHoldMs = 5000;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    public GenerationScheduler(
+            @Value("${app.scheduler.max-concurrent:4}") int maxConcurrent,
+            @Value("${app.scheduler.max-queued-per-client:20}") int maxQueuedPerClient,
+            @Value("${app.scheduler.interactive.queue-capacity:100}") int interactiveCapacity,
+            @Value("${app.scheduler.batch.queue-capacity:500}") int batchCapacity,
+            @Value("${app.scheduler.client-weights:}") List<String> weights) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueuedPerClient = maxQueuedPerClient;
+        laneCapacity.put(Lane.INTERACTIVE, interactiveCapacity);
+        laneCapacity.put(Lane.BATCH, batchCapacity);
+
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new LaneQueue());
+        }
+
+        // Entries look like "client:weight"; the client part may itself contain colons
+        for (String entry : weights) {
+            int separator = entry.lastIndexOf(':');
+            if (separator > 0) {
+                clientWeights.put(entry.substring(0, separator).trim(),
+                    Double.parseDouble(entry.substring(separator + 1).trim()));
+            }
+        }
+    }
+
+    /**
+     * Queues the requester and returns a future that completes with a permit once
+     * it may start. The permit must be closed when the GPU work is done. Callbacks
+     * on the future run on the thread releasing the previous permit, so they
+     * should only hand work off. Cancelling the future gives up the place in the
+     * queue.
+     *
+     * @throws GenerationRejectedException if the lane or client queue is full
+     */
+    public CompletableFuture<Permit> enqueue(Requester requester) {
+        Waiter waiter;
+        List<Waiter> grants;
+
+        synchronized (this) {
+            LaneQueue lane = lanes.get(requester.lane());
+            ClientQueue client = lane.clients.get(requester.clientId());
+
+            if (lane.waiting >= laneCapacity.get(requester.lane())
+                    || (client != null && client.waiters.size() >= maxQueuedPerClient)) {
+                rejected++;
+                long retryAfter = estimateRetryAfterSeconds(requester.lane());
+                logger.warn("Rejecting {} request from {}: queue full, retry after {}s",
+                    requester.lane(), requester.clientId(), retryAfter);
+                throw new GenerationRejectedException(retryAfter);
+            }
+
+            if (client == null) {
+                client = new ClientQueue(lane.virtualTime);
+                lane.clients.put(requester.clientId(), client);
+            }
+
+            double start = Math.max(lane.virtualTime, client.lastFinish);
+            double cost = 1.0 / clientWeights.getOrDefault(requester.clientId(), 1.0);
+            client.lastFinish = start + cost;
+            waiter = new Waiter(start, cost, requester, metrics.start());
+            client.waiters.add(waiter);
+            lane.waiting++;
+
+            grants = dispatch();
+        }
+
+        complete(grants);
+        waiter.future.whenComplete((permit, error) -> {
+            if (error instanceof CancellationException) {
+                withdraw(waiter);
+            }
+        });
+        return waiter.future;
+    }
+
+    /**
+     * Runs the task on the calling thread once a permit is granted. Waiting stops
+     * if the thread's CancellationToken is cancelled. Called from a job's worker,
+     * the job shows as QUEUED at this place in the queue until the grant.
+     *
+     * @throws GenerationRejectedException if the lane or client queue is full
+     * @throws GenerationCancelledException if cancelled before a permit was granted
+     */
+    public <T> T call(Requester requester, Callable<T> task) throws Exception {
+        CancellationToken token = CancellationToken.current();
+        CompletableFuture<Permit> grant = enqueue(requester);
+
+        GenerationJob job = GenerationJobService.currentJob();
+        if (job != null) {
+            job.setGrant(grant);
+        }
+
+        Permit permit;
+        try (CancellationToken.Registration registration =
+                 token != null ? token.onCancel(() -> grant.cancel(false)) : null) {
+            permit = grant.join();
+        } catch (CancellationException e) {
+            throw new GenerationCancelledException(token.getReason());
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+
+        if (job != null) {
+            job.markRunning();
+        }
+        try (permit) {
+            return task.call();
+        }
+    }
+
+    /**
+     * How many waiters would be granted a permit before the one holding this
+     * future if nothing else arrived: all waiters in higher lanes plus those in
+     * its lane with an earlier start tag. Requests arriving later from other
+     * clients can still be placed ahead of it, so this is an estimate. 0 once
+     * the permit is granted or the wait is given up.
+     */
+    public synchronized int getPosition(CompletableFuture<Permit> grant) {
+        int ahead = 0;
+        for (Lane lane : Lane.values()) {
+            LaneQueue queue = lanes.get(lane);
+            Waiter target = null;
+            int targetClient = 0;
+            int index = 0;
+            for (ClientQueue client : queue.clients.values()) {
+                for (Waiter waiter : client.waiters) {
+                    if (waiter.future == grant) {
+                        target = waiter;
+                        targetClient = index;
+                    }
+                }
+                index++;
+            }
+
+            if (target == null) {
+                ahead += queue.waiting;
+                continue;
+            }
+
+            // Ties go to the client met first, as in pollNext
+            index = 0;
+            for (ClientQueue client : queue.clients.values()) {
+                for (Waiter waiter : client.waiters) {
+                    if (waiter.start < target.start || (waiter.start == target.start && index < targetClient)) {
+                        ahead++;
+                    }
+                }
+                index++;
+            }
+            return ahead;
+        }
+        return 0;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active", active);
+        stats.put("maxConcurrent", maxConcurrent);
+        for (Lane lane : Lane.values()) {
+            LaneQueue queue = lanes.get(lane);
+            stats.put(lane.name().toLowerCase() + "Waiting", queue.waiting);
+            stats.put(lane.name().toLowerCase() + "Clients", queue.clients.size());
+        }
+        stats.put("granted", granted);
+        stats.put("rejected", rejected);
+        stats.put("averageHoldMs", Math.round(averageHoldMs));
+        return stats;
+    }
+
+    /**
+     * Grants as many permits as are free. Called with the lock held; the returned
+     * waiters are completed by the caller after releasing it.
+     */
+    private List<Waiter> dispatch() {
+        List<Waiter> grants = new ArrayList<>();
+
+        while (active < maxConcurrent) {
+            Waiter next = pollNext();
+            if (next == null) {
+                break;
+            }
+            active++;
+            granted++;
+            grants.add(next);
+        }
+        return grants;
+    }
+
+    private Waiter pollNext() {
+        for (Lane lane : Lane.values()) {
+            LaneQueue queue = lanes.get(lane);
+            if (queue.waiting == 0) {
+                continue;
+            }
+
+            ClientQueue best = null;
+            for (ClientQueue client : queue.clients.values()) {
+                if (!client.waiters.isEmpty()
+                        && (best == null || client.waiters.peek().start < best.waiters.peek().start)) {
+                    best = client;
+                }
+            }
+
+            Waiter waiter = best.waiters.poll();
+            queue.waiting--;
+            queue.virtualTime = Math.max(queue.virtualTime, waiter.start);
+
+            // Idle clients are dropped; they rejoin at the lane's current virtual time
+            Iterator<ClientQueue> clients = queue.clients.values().iterator();
+            while (clients.hasNext()) {
+                ClientQueue client = clients.next();
+                if (client.waiters.isEmpty() && client.lastFinish <= queue.virtualTime) {
+                    clients.remove();
+                }
+            }
+            return waiter;
+        }
+        return null;
+    }
+
+    /**
+     * Takes a cancelled waiter out of its client queue if it is still waiting and
+     * gives its virtual time back: the client's later requests move up into the
+     * freed slot, so giving up a place does not push the client's next ones back.
+     */
+    private synchronized void withdraw(Waiter waiter) {
+        LaneQueue lane = lanes.get(waiter.requester.lane());
+        ClientQueue client = lane.clients.get(waiter.requester.clientId());
+        if (client == null || !client.waiters.remove(waiter)) {
+            return;
+        }
+        lane.waiting--;
+
+        for (Waiter later : client.waiters) {
+            if (later.start > waiter.start) {
+                later.start -= waiter.cost;
+            }
+        }
+        client.lastFinish -= waiter.cost;
+    }
+
+    private void release(long heldMs) {
+        List<Waiter> grants;
+        synchronized (this) {
+            active--;
+            averageHoldMs = 0.2 * heldMs + 0.8 * averageHoldMs;
+            grants = dispatch();
+        }
+        complete(grants);
+    }
+
+    private void complete(List<Waiter> grants) {
+        for (Waiter waiter : grants) {
+            metrics.queueWait(waiter.queued, waiter.requester.lane());
+            Permit permit = new Permit();
+            // A waiter cancelled after being polled hands its slot straight on
+            if (!waiter.future.complete(permit)) {
+                permit.close();
+            }
+        }
+    }
+
+    private long estimateRetryAfterSeconds(Lane lane) {
+        int ahead = lanes.get(Lane.INTERACTIVE).waiting;
+        if (lane == Lane.BATCH) {
+            ahead += lanes.get(Lane.BATCH).waiting;
+        }
+        double seconds = (ahead / (double) maxConcurrent) * averageHoldMs / 1000.0;
+        return Math.max(1, (long) Math.ceil(seconds));
+    }
+
+    /**
+     * Permission to run one generation; closing it hands the slot to the next waiter.
+     * Closing more than once has no effect.
+     */
+    public class Permit implements AutoCloseable {
+
+        private final long grantedAt = System.currentTimeMillis();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(System.currentTimeMillis() - grantedAt);
+            }
+        }
+    }
+
+    private static class LaneQueue {
+        private final Map<String, ClientQueue> clients = new LinkedHashMap<>();
+        private double virtualTime;
+        private int waiting;
+    }
+
+    private static class ClientQueue {
+        private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+        private double lastFinish;
+
+        ClientQueue(double virtualTime) {
+            this.lastFinish = virtualTime;
+        }
+    }
+
+    private static class Waiter {
+        private double start;
+        private final double cost;
+        private final Requester requester;
+        private final Timer.Sample queued;
+        private final CompletableFuture<Permit> future = new CompletableFuture<>();
+
+        Waiter(double start, double cost, Requester requester, Timer.Sample queued) {
+            this.start = start;
+            this.cost = cost;
+            this.requester = requester;
+            this.queued = queued;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.aiimage.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory metadata for served images so requests for known files never stat
+ * the filesystem. Generated images are immutable, so an entry stays valid until
+ * the file is removed. Names that weren't found are remembered for
+ * app.image.missing-lookup-ttl-ms, so repeated requests for missing files
+ * don't stat either.
+ */
+@Component
+public class ImageFileIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageFileIndex.class);
+
+    private static final int MAX_REMEMBERED_MISSES = 10000;
+
+    private final Map<String, ImageFile> index = new ConcurrentHashMap<>();
+    private final Map<String, Long> misses = new ConcurrentHashMap<>();
+
+    @Value("${app.image.missing-lookup-ttl-ms:30000}")
+    private long missTtlMs;
+
+    private final ImageStorage imageStorage;
+
+    public ImageFileIndex(ImageStorage imageStorage) {
+        this.imageStorage = imageStorage;
+    }
+
+    public record ImageFile(String filename, Path path, long size, long lastModified, String contentType) {
+
+        /**
+         * Strong validator; filenames are unique, size guards against a rewritten file
+         */
+        public String etag() {
+            return "\"" + filename + "-" + size + "\"";
+        }
+    }
+
+    @PostConstruct
+    public void loadExisting() {
+        try {
+            for (Path file : imageStorage.listImages()) {
+                register(file.getFileName().toString());
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to index image storage: {}", e.getMessage());
+        }
+
+        logger.info("Indexed {} existing images", index.size());
+    }
+
+    /**
+     * Records a newly written image; call after the file has been moved into place
+     */
+    public ImageFile register(String filename) {
+        Path path = imageStorage.resolve(filename);
+        if (path == null) {
+            return null;
+        }
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+
+            ImageFile imageFile = new ImageFile(filename, path, attributes.size(),
+                attributes.lastModifiedTime().toMillis(), contentTypeFor(filename));
+            index.put(filename, imageFile);
+            misses.remove(filename);
+            return imageFile;
+
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns indexed metadata, falling back to a single stat for files written
+     * outside this process unless the name recently missed
+     */
+    public ImageFile lookup(String filename) {
+        ImageFile imageFile = index.get(filename);
+        if (imageFile != null) {
+            return imageFile;
+        }
+
+        long now = System.currentTimeMillis();
+        Long missedAt = misses.get(filename);
+        if (missedAt != null && now - missedAt < missTtlMs) {
+            return null;
+        }
+
+        imageFile = register(filename);
+        if (imageFile == null) {
+            if (misses.size() >= MAX_REMEMBERED_MISSES) {
+                // Requests for random names shouldn't grow this without bound
+                misses.clear();
+            }
+            misses.put(filename, now);
+        }
+        return imageFile;
+    }
+
+    public void evict(String filename) {
+        index.remove(filename);
+    }
+
+    private static String contentTypeFor(String filename) {
+        String lower = filename.toLowerCase();
+        if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+            return "image/jpeg";
+        }
+        if (lower.endsWith(".webp")) {
+            return "image/webp";
+        }
+        return "image/png";
+    }
+}
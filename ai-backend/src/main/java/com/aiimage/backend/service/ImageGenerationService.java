@@ -1,58 +1,60 @@
 package com.aiimage.backend.service;
 
-import org.springframework.beans.factory.annotation.Value;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.http.*;
-import org.springframework.core.ParameterizedTypeReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.io.File;
-import java.io.FileOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 @Service
 public class ImageGenerationService {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageGenerationService.class);
     
-    @Value("${local.model.url:http://localhost:7860}")
-    private String localModelUrl;
-    
-    private final RestTemplate restTemplate;
-    private final String imageStoragePath = "generated-images/";
+    @Autowired
+    @Qualifier("stableDiffusionCircuitBreaker")
+    private CircuitBreaker stableDiffusionCircuitBreaker;
 
-    public ImageGenerationService() {
-        this.restTemplate = new RestTemplate();
-        createImageDirectory();
-    }
+    @Autowired
+    private BackendHealthMonitor backendHealthMonitor;
 
-    private void createImageDirectory() {
-        try {
-            File dir = new File(imageStoragePath);
-            if (!dir.exists()) {
-                dir.mkdirs();
-                logger.info("Created image storage directory: {}", imageStoragePath);
-            }
-        } catch (Exception e) {
-            logger.error("Failed to create image directory", e);
-        }
-    }
+    @Autowired
+    private GenerationResultCache resultCache;
+
+    @Autowired
+    private Txt2ImgBatcher txt2ImgBatcher;
+
+    @Autowired
+    private ImageStorage imageStorage;
+
+    @Autowired
+    private ImageFileIndex imageFileIndex;
+
+    @Autowired
+    private GenerationHistoryService generationHistoryService;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    private PromptRuleEngine promptRules;
+
+    private final SingleFlight<String> inFlightRenders = new SingleFlight<>();
 
     /**
      * Enhances prompt for regular image generation to ensure subject is fully in frame
      */
-    private String enhancePromptForFraming(String originalPrompt) {
-        // Add framing keywords to ensure complete subject visibility
-        String framingEnhancement = ", full view, complete subject, fully in frame, not cropped, " +
-                                   "entire object visible, wide shot, nothing cut off, well framed, " +
-                                   "subject completely visible, full composition, properly framed";
+    String enhancePromptForFraming(String originalPrompt) {
+        String enhancedPrompt = promptRules.rewrite(PromptRules.IMAGE, originalPrompt);
         
-        String enhancedPrompt = originalPrompt + framingEnhancement;
-        
-        logger.info("Original prompt: {}", originalPrompt);
-        logger.info("Enhanced prompt with framing: {}", enhancedPrompt);
+        logger.debug("Original prompt: {}", originalPrompt);
+        logger.debug("Enhanced prompt with framing: {}", enhancedPrompt);
         
         return enhancedPrompt;
     }
@@ -66,99 +68,153 @@ public class ImageGenerationService {
                "cut off edges, partial object, blurry, low quality";
     }
 
+    /**
+     * Returns the URL of an existing render for this prompt, or null. Lets callers
+     * answer cache hits without waiting for a scheduler permit.
+     */
+    public String findCachedImage(String prompt) {
+        return findCachedImage(prompt, ImageSpec.DEFAULT);
+    }
+
+    public String findCachedImage(String prompt, ImageSpec spec) {
+        String cachedFilename = resultCache.lookup(buildImageParams(normalizePrompt(prompt), spec));
+        return cachedFilename != null ? toImageUrl(cachedFilename) : null;
+    }
+
     public String generateImage(String prompt) throws Exception {
+        return generateImage(prompt, ImageSpec.DEFAULT);
+    }
+
+    /**
+     * Renders for a caller that already holds a scheduler permit (e.g. a job)
+     */
+    public String generateImage(String prompt, ImageSpec spec) throws Exception {
+        return generateImage(prompt, spec, null);
+    }
+
+    /**
+     * Renders for a caller without a scheduler permit. Cache hits and requests
+     * joining an identical render in progress answer without one; only the
+     * request that starts a render waits its turn with the scheduler.
+     *
+     * @throws GenerationRejectedException if the scheduler's queues are full
+     */
+    public String generateImage(String prompt, ImageSpec spec, GenerationScheduler.Requester requester)
+            throws Exception {
+        AtomicInteger inFlight = metrics.inFlight("image");
+        inFlight.incrementAndGet();
+        try {
+            return generateImageOrPlaceholder(normalizePrompt(prompt), spec, requester);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private String generateImageOrPlaceholder(String prompt, ImageSpec spec, GenerationScheduler.Requester requester) {
         logger.info("Generating image for prompt: {}", prompt);
+        long startedAt = System.currentTimeMillis();
+        String failure = "No images in response";
 
         try {
             // Try local model first
-            String result = generateWithLocalModel(prompt);
+            String result = generateWithLocalModel(prompt, spec, requester);
             if (result != null) {
                 return result;
             }
+        } catch (CircuitOpenException e) {
+            // Backend already known to be down; skip straight to the placeholder
+            logger.debug("Skipping local model: {}", e.getMessage());
+            metrics.placeholderFallback("circuit_open");
+            return generatePlaceholderImage(spec);
+        } catch (GenerationCancelledException | GenerationRejectedException e) {
+            // Nobody is waiting for a placeholder, or the client should retry later
+            throw e;
         } catch (Exception e) {
             logger.warn("Local model failed: {}", e.getMessage());
+            failure = e.getMessage();
         }
 
+        generationHistoryService.recordFailed("image", prompt, failure, startedAt);
+
         // Fallback to placeholder
         logger.warn("Local model failed, using placeholder");
-        return generatePlaceholderImage();
+        metrics.placeholderFallback("backend_failure");
+        return generatePlaceholderImage(spec);
     }
 
-    private String generateWithLocalModel(String prompt) {
+    private String generateWithLocalModel(String prompt, ImageSpec spec, GenerationScheduler.Requester requester) {
         try {
             logger.info("Calling local Stable Diffusion API with prompt: {}", prompt);
             
-            // Enhance prompt for better framing
-            String enhancedPrompt = enhancePromptForFraming(prompt);
-            String negativePrompt = getFramingNegativePrompt();
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-
-            // Automatic1111 API format with enhanced prompts
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("prompt", enhancedPrompt);
-            requestBody.put("negative_prompt", negativePrompt);
-            requestBody.put("steps", 10);  // Keep original steps
-            requestBody.put("width", 512);
-            requestBody.put("height", 512);
-            requestBody.put("cfg_scale", 7);
-            requestBody.put("sampler_name", "DPM++ 2M");
-
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-
-            logger.info("Sending request to local model, waiting for completion...");
-            
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                localModelUrl + "/sdapi/v1/txt2img",
-                HttpMethod.POST,
-                entity,
-                new ParameterizedTypeReference<Map<String, Object>>() {}
-            );
-
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                Map<String, Object> responseBody = response.getBody();
-                logger.info("Response body keys: {}", responseBody.keySet());
-                
-                Object images = responseBody.get("images");
-                logger.info("Images object type: {}", images != null ? images.getClass().getSimpleName() : "null");
-                
-                if (images instanceof List<?> imagesList && !imagesList.isEmpty()) {
-                    logger.info("Number of images: {}", imagesList.size());
-                    String base64Image = (String) imagesList.get(0);
-                    logger.info("Base64 image length: {}", base64Image != null ? base64Image.length() : 0);
-                    
-                    if (base64Image != null && !base64Image.isEmpty()) {
-                        byte[] imageBytes = Base64.getDecoder().decode(base64Image);
-                        String imageUrl = saveImageBytes(imageBytes);
-                        logger.info("Successfully generated image with local model");
-                        return imageUrl;
-                    }
-                } else {
-                    logger.warn("No images in response or wrong format");
-                }
+            Txt2ImgParams params = buildImageParams(prompt, spec);
+
+            String cachedFilename = resultCache.lookup(params);
+            if (cachedFilename != null) {
+                logger.info("Reusing previously generated image: {}", cachedFilename);
+                return toImageUrl(cachedFilename);
             }
 
-            return null;
+            // Identical requests already rendering share that render instead of starting another,
+            // so only the one that starts it takes a scheduler permit
+            return inFlightRenders.execute(params.cacheKey(), () -> renderWithLocalModel(prompt, params, requester));
 
+        } catch (CircuitOpenException | GenerationCancelledException | GenerationRejectedException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Local model error: {}", e.getMessage());
             throw new RuntimeException("Local model failed: " + e.getMessage());
         }
     }
 
-    private String saveImageBytes(byte[] imageBytes) throws Exception {
+    /**
+     * Normalizes whitespace so trivially different submissions share cache and in-flight renders
+     */
+    private String normalizePrompt(String prompt) {
+        return prompt.trim().replaceAll("\\s+", " ");
+    }
+
+    private Txt2ImgParams buildImageParams(String prompt, ImageSpec spec) {
+        // Enhance prompt for better framing
+        String enhancedPrompt = enhancePromptForFraming(prompt);
+        String negativePrompt = getFramingNegativePrompt();
+
+        // Automatic1111 API format with enhanced prompts
+        return new Txt2ImgParams(
+            enhancedPrompt, negativePrompt,
+            spec.steps(), spec.width(), spec.height(), 7, "DPM++ 2M",
+            spec.seed(), spec.model());
+    }
+
+    private String renderWithLocalModel(String prompt, Txt2ImgParams params, GenerationScheduler.Requester requester)
+            throws Exception {
+        long startedAt = System.currentTimeMillis();
+        Path renderedImage = txt2ImgBatcher.render(params, requester);
+
+        if (renderedImage != null) {
+            long sizeBytes = Files.size(renderedImage);
+            String filename = saveRenderedImage(renderedImage);
+            resultCache.put(params, filename, sizeBytes);
+            generationHistoryService.recordCompleted("image", prompt, params.cacheKey(), filename, sizeBytes, startedAt);
+            logger.info("Successfully generated image with local model");
+            return toImageUrl(filename);
+        }
+
+        logger.warn("No images in response or wrong format");
+        return null;
+    }
+
+    /**
+     * Publishes an image the client already decoded to disk under a unique name
+     */
+    private String saveRenderedImage(Path renderedImage) throws Exception {
+        Timer.Sample sample = metrics.start();
         try {
-            String filename = "local_" + System.currentTimeMillis() + ".png";
-            String filepath = imageStoragePath + filename;
+            String filename = imageStorage.store(renderedImage, "local", "png");
+            imageFileIndex.register(filename);
+            sample.stop(metrics.imageStore());
             
-            try (FileOutputStream fos = new FileOutputStream(filepath)) {
-                fos.write(imageBytes);
-            }
-            
-            logger.info("Saved image to: {}", filepath);
-            // Fixed: Changed port from 8081 to 8080 to match the running backend
-            return "http://localhost:8080/api/images/" + filename;
+            logger.info("Saved image as: {}", filename);
+            return filename;
             
         } catch (Exception e) {
             logger.error("Failed to save image", e);
@@ -166,33 +222,38 @@ public class ImageGenerationService {
         }
     }
 
-    private String generatePlaceholderImage() {
-        return "https://picsum.photos/512/512?random=" + System.currentTimeMillis();
+    private String toImageUrl(String filename) {
+        // Fixed: Changed port from 8081 to 8080 to match the running backend
+        return "http://localhost:8080/api/images/" + filename;
+    }
+
+    private String generatePlaceholderImage(ImageSpec spec) {
+        return "https://picsum.photos/" + spec.width() + "/" + spec.height() + "?random=" + System.currentTimeMillis();
     }
 
     public Map<String, Object> getAvailableModels() {
         Map<String, Object> models = new HashMap<>();
         List<Map<String, String>> modelList = new ArrayList<>();
         
-        // Check if local model is available
-        try {
-            restTemplate.getForObject(localModelUrl + "/sdapi/v1/options", String.class);
-            
+        // Availability comes from the background health probes and the circuit breaker,
+        // so polling this endpoint never touches the GPU servers
+        CircuitBreaker.State circuitState = stableDiffusionCircuitBreaker.getState();
+        if (backendHealthMonitor.isStableDiffusionHealthy() && circuitState != CircuitBreaker.State.OPEN) {
             Map<String, String> localModel = new HashMap<>();
             localModel.put("name", "Local Stable Diffusion");
             localModel.put("description", "Unlimited local image generation");
             localModel.put("provider", "local");
             localModel.put("status", "ready");
+            localModel.put("circuit", circuitState.name());
             modelList.add(localModel);
             
-        } catch (Exception e) {
-            logger.warn("Local model not available: {}", e.getMessage());
-            
+        } else {
             Map<String, String> localModel = new HashMap<>();
             localModel.put("name", "Local Stable Diffusion");
             localModel.put("description", "Start webui-user.bat to enable");
             localModel.put("provider", "local");
             localModel.put("status", "offline");
+            localModel.put("circuit", circuitState.name());
             modelList.add(localModel);
         }
         
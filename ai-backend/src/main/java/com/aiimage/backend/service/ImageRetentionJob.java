@@ -0,0 +1,175 @@
+package com.aiimage.backend.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background housekeeping for image storage: removes abandoned temp files,
+ * enforces the age and total-size quotas by deleting the oldest images first,
+ * and, if app.storage.migrate-legacy is set, moves files from the old flat
+ * layout into shards. A quota of 0 disables it.
+ */
+@Component
+public class ImageRetentionJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageRetentionJob.class);
+
+    @Autowired
+    private ImageStorage imageStorage;
+
+    @Autowired
+    private ImageFileIndex imageFileIndex;
+
+    @Value("${app.storage.retention.max-age-days:0}")
+    private long maxAgeDays;
+
+    @Value("${app.storage.retention.max-bytes:0}")
+    private long maxBytes;
+
+    @Value("${app.storage.retention.temp-max-age-ms:3600000}")
+    private long tempMaxAgeMs;
+
+    @Value("${app.storage.migrate-legacy:false}")
+    private boolean migrateLegacy;
+
+    private final AtomicLong migrated = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong deletedBytes = new AtomicLong();
+    private volatile long storedBytes;
+    private volatile int storedImages;
+    private volatile long lastRunAt;
+
+    private record StoredImage(Path path, String filename, long size, long lastModified) {}
+
+    @Scheduled(initialDelayString = "${app.storage.retention.initial-delay-ms:60000}",
+               fixedDelayString = "${app.storage.retention.interval-ms:3600000}")
+    public void run() {
+        try {
+            removeStaleTempFiles();
+            List<StoredImage> images = scan();
+            if (migrateLegacy) {
+                migrateLegacyFiles(images);
+            }
+            enforceQuotas(images);
+        } catch (IOException e) {
+            logger.warn("Image retention run failed: {}", e.getMessage());
+        }
+        lastRunAt = System.currentTimeMillis();
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+            "images", storedImages,
+            "bytes", storedBytes,
+            "migrated", migrated.get(),
+            "deleted", deleted.get(),
+            "deletedBytes", deletedBytes.get(),
+            "lastRunAt", lastRunAt
+        );
+    }
+
+    private void removeStaleTempFiles() throws IOException {
+        long cutoff = System.currentTimeMillis() - tempMaxAgeMs;
+        for (Path temp : imageStorage.listTempFiles()) {
+            try {
+                if (Files.getLastModifiedTime(temp).toMillis() < cutoff) {
+                    Files.deleteIfExists(temp);
+                    logger.info("Removed abandoned temp file {}", temp.getFileName());
+                }
+            } catch (NoSuchFileException e) {
+                // Published or cleaned up by its writer in the meantime
+            }
+        }
+    }
+
+    private List<StoredImage> scan() throws IOException {
+        List<StoredImage> images = new ArrayList<>();
+        for (Path path : imageStorage.listImages()) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                images.add(new StoredImage(path, path.getFileName().toString(), attributes.size(),
+                    attributes.lastModifiedTime().toMillis()));
+            } catch (NoSuchFileException e) {
+                // Deleted since listing
+            }
+        }
+        return images;
+    }
+
+    private void migrateLegacyFiles(List<StoredImage> images) {
+        for (int i = 0; i < images.size(); i++) {
+            StoredImage image = images.get(i);
+            try {
+                Path target = imageStorage.migrateToShard(image.path());
+                if (!target.equals(image.path())) {
+                    // Re-register so served requests pick up the new path
+                    imageFileIndex.register(image.filename());
+                    images.set(i, new StoredImage(target, image.filename(), image.size(), image.lastModified()));
+                    migrated.incrementAndGet();
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to move {} into its shard: {}", image.filename(), e.getMessage());
+            }
+        }
+    }
+
+    private void enforceQuotas(List<StoredImage> images) {
+        images.sort(Comparator.comparingLong(StoredImage::lastModified));
+
+        long totalBytes = 0;
+        for (StoredImage image : images) {
+            totalBytes += image.size();
+        }
+
+        long ageCutoff = maxAgeDays > 0
+            ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays)
+            : Long.MIN_VALUE;
+        int remaining = images.size();
+
+        // Oldest first: drop anything past the age limit, then keep going until under the size limit
+        for (StoredImage image : images) {
+            boolean expired = image.lastModified() < ageCutoff;
+            boolean overQuota = maxBytes > 0 && totalBytes > maxBytes;
+            if (!expired && !overQuota) {
+                break;
+            }
+            if (delete(image)) {
+                totalBytes -= image.size();
+                remaining--;
+            }
+        }
+
+        storedBytes = totalBytes;
+        storedImages = remaining;
+    }
+
+    private boolean delete(StoredImage image) {
+        try {
+            Files.deleteIfExists(image.path());
+            imageFileIndex.evict(image.filename());
+            deleted.incrementAndGet();
+            deletedBytes.addAndGet(image.size());
+            logger.info("Retention removed {} ({} bytes)", image.filename(), image.size());
+            return true;
+        } catch (IOException e) {
+            logger.warn("Failed to remove {}: {}", image.filename(), e.getMessage());
+            return false;
+        }
+    }
+}
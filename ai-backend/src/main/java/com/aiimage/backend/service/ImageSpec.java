@@ -0,0 +1,30 @@
+package com.aiimage.backend.service;
+
+/**
+ * Caller-controlled txt2img settings for one image request. A seed of -1 lets SD
+ * pick one; a null model uses whichever checkpoint the SD instance has loaded.
+ */
+public record ImageSpec(int width, int height, int steps, String model, long seed) {
+
+    public static final ImageSpec DEFAULT = new ImageSpec(512, 512, 10, null, -1);
+
+    private static final int MIN_SIDE = 64;
+
+    public ImageSpec withSeed(long seed) {
+        return new ImageSpec(width, height, steps, model, seed);
+    }
+
+    /**
+     * Same model and seed at 1/scale of the resolution (kept to a multiple of 8,
+     * at least 64) and the given number of steps
+     */
+    public ImageSpec preview(int scale, int previewSteps) {
+        int divisor = Math.max(1, scale);
+        return new ImageSpec(previewSide(width, divisor), previewSide(height, divisor),
+            Math.min(steps, Math.max(1, previewSteps)), model, seed);
+    }
+
+    private static int previewSide(int side, int divisor) {
+        return Math.max(MIN_SIDE, side / divisor / 8 * 8);
+    }
+}
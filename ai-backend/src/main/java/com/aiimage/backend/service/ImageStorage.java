@@ -0,0 +1,190 @@
+package com.aiimage.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Layout of generated images on disk.
+ *
+ * Images are named {prefix}_{random id}.{ext}, so concurrent writers can never
+ * collide, and live in one of 256 shard directories chosen by the first byte of
+ * the name's SHA-256, which keeps every directory small as the store grows.
+ * Writers first fill a temp file under .tmp/ on the same filesystem and then
+ * publish it with an atomic move, so readers never see a partial image.
+ *
+ * Filenames are the public identity of an image (they appear in URLs); callers
+ * resolve them to paths through this class. Files from the older flat layout are
+ * still found in the root until the retention job moves them into shards.
+ */
+@Component
+public class ImageStorage {
+
+    private static final Pattern VALID_FILENAME = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+    private static final String TEMP_DIR = ".tmp";
+    private static final String DERIVED_DIR = ".derived";
+
+    private final Path root;
+    private final Path tempDir;
+    private final Path derivedDir;
+
+    public ImageStorage(@Value("${app.image.storage.path:generated-images/}") String imageStoragePath) {
+        this.root = Path.of(imageStoragePath).toAbsolutePath().normalize();
+        this.tempDir = root.resolve(TEMP_DIR);
+        this.derivedDir = root.resolve(DERIVED_DIR);
+    }
+
+    @PostConstruct
+    void createDirectories() throws IOException {
+        Files.createDirectories(tempDir);
+        Files.createDirectories(derivedDir);
+    }
+
+    /**
+     * Creates an empty temp file for a writer to fill before calling store
+     */
+    public Path newTempFile() throws IOException {
+        return Files.createFile(tempDir.resolve(UUID.randomUUID() + ".part"));
+    }
+
+    /**
+     * Atomically publishes a finished temp file under a new unique name and
+     * returns that name. The temp file is deleted if the move fails.
+     */
+    public String store(Path tempFile, String prefix, String extension) throws IOException {
+        String filename = prefix + "_" + UUID.randomUUID().toString().replace("-", "") + "." + extension;
+        Path target = shardPath(filename);
+
+        try {
+            Files.createDirectories(target.getParent());
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        return filename;
+    }
+
+    /**
+     * Path of a stored image, or null if the name is not a valid image filename.
+     * The file itself may not exist.
+     */
+    public Path resolve(String filename) {
+        if (filename == null || !VALID_FILENAME.matcher(filename).matches()) {
+            return null;
+        }
+
+        Path sharded = shardPath(filename);
+        if (Files.exists(sharded)) {
+            return sharded;
+        }
+
+        Path legacy = root.resolve(filename);
+        return Files.exists(legacy) ? legacy : sharded;
+    }
+
+    /**
+     * Every stored image, in shards and in the legacy flat root
+     */
+    public List<Path> listImages() throws IOException {
+        List<Path> images = new ArrayList<>();
+        collectImages(root, images);
+
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path shard : shards) {
+                // Skips .tmp and .derived
+                if (!shard.getFileName().toString().startsWith(".")) {
+                    collectImages(shard, images);
+                }
+            }
+        }
+        return images;
+    }
+
+    /**
+     * Publishes a finished temp file as a derived variant (thumbnail, transcode),
+     * replacing any previous copy. Derived files live apart from originals and
+     * are never listed, indexed or subject to retention.
+     */
+    public Path storeDerived(Path tempFile, String name) throws IOException {
+        Path target = derivedDir.resolve(shardOf(name)).resolve(name);
+
+        try {
+            Files.createDirectories(target.getParent());
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        return target;
+    }
+
+    public List<Path> listDerived() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(derivedDir, Files::isDirectory)) {
+            for (Path shard : shards) {
+                collectImages(shard, files);
+            }
+        }
+        return files;
+    }
+
+    public List<Path> listTempFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(tempDir, "*.part")) {
+            entries.forEach(files::add);
+        }
+        return files;
+    }
+
+    /**
+     * Moves a file from the legacy flat layout into its shard and returns the new
+     * path; files that are already sharded are returned unchanged
+     */
+    public Path migrateToShard(Path image) throws IOException {
+        if (!image.getParent().equals(root)) {
+            return image;
+        }
+        Path target = shardPath(image.getFileName().toString());
+        Files.createDirectories(target.getParent());
+        Files.move(image, target, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    private Path shardPath(String filename) {
+        return root.resolve(shardOf(filename)).resolve(filename);
+    }
+
+    private static String shardOf(String filename) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(filename.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().toHexDigits(hash[0]);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static void collectImages(Path dir, List<Path> images) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.{png,jpg,jpeg,webp}")) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) {
+                    images.add(file);
+                }
+            }
+        }
+    }
+}
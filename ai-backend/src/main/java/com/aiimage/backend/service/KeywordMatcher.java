@@ -0,0 +1,126 @@
+package com.aiimage.backend.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton over a fixed keyword set, matched case-insensitively on
+ * whole-word boundaries in a single pass. Transitions are precomputed into a flat
+ * table, so a scan costs one array lookup per character however many keywords
+ * there are.
+ */
+final class KeywordMatcher {
+
+    /** Transition table: next state = transitions[state * width + charClass] */
+    private final int[] transitions;
+    private final int width;
+    /** Character class per char; chars past the end, or 0, are in no keyword */
+    private final int[] charClasses;
+    /** Per state, length and value of every keyword ending there, as flat pairs */
+    private final int[][] outputs;
+
+    /**
+     * @param keywords keyword to value; on a match, the lowest value found wins
+     */
+    KeywordMatcher(Map<String, Integer> keywords) {
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<List<int[]>> matches = new ArrayList<>();
+        trie.add(new HashMap<>());
+        matches.add(new ArrayList<>());
+
+        Map<Character, Integer> classes = new HashMap<>();
+        for (Map.Entry<String, Integer> keyword : keywords.entrySet()) {
+            String text = keyword.getKey().toLowerCase(Locale.ROOT);
+            if (text.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                classes.computeIfAbsent(c, key -> classes.size() + 1);
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<>());
+                    matches.add(new ArrayList<>());
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            matches.get(state).add(new int[] {text.length(), keyword.getValue()});
+        }
+
+        int maxChar = classes.keySet().stream().mapToInt(c -> c).max().orElse(0);
+        this.charClasses = new int[maxChar + 1];
+        classes.forEach((c, charClass) -> charClasses[c] = charClass);
+        this.width = classes.size() + 1;
+        this.transitions = new int[trie.size() * width];
+        this.outputs = new int[trie.size()][];
+
+        // Breadth-first, so each state's failure target is complete before it is used
+        int[] failure = new int[trie.size()];
+        Queue<Integer> pending = new ArrayDeque<>();
+        for (Map.Entry<Character, Integer> edge : trie.get(0).entrySet()) {
+            transitions[classes.get(edge.getKey())] = edge.getValue();
+            pending.add(edge.getValue());
+        }
+        outputs[0] = new int[0];
+        while (!pending.isEmpty()) {
+            int state = pending.poll();
+            List<int[]> own = matches.get(state);
+            int[] inherited = outputs[failure[state]];
+            int[] found = new int[own.size() * 2 + inherited.length];
+            for (int i = 0; i < own.size(); i++) {
+                found[i * 2] = own.get(i)[0];
+                found[i * 2 + 1] = own.get(i)[1];
+            }
+            System.arraycopy(inherited, 0, found, own.size() * 2, inherited.length);
+            outputs[state] = found;
+
+            System.arraycopy(transitions, failure[state] * width, transitions, state * width, width);
+            for (Map.Entry<Character, Integer> edge : trie.get(state).entrySet()) {
+                int charClass = classes.get(edge.getKey());
+                int child = edge.getValue();
+                failure[child] = transitions[failure[state] * width + charClass];
+                transitions[state * width + charClass] = child;
+                pending.add(child);
+            }
+        }
+    }
+
+    /**
+     * Lowest value of any keyword found in the text as a whole word, or -1
+     */
+    int firstMatch(CharSequence text) {
+        int best = -1;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int charClass = c < charClasses.length ? charClasses[c] : 0;
+            state = transitions[state * width + charClass];
+
+            int[] found = outputs[state];
+            for (int j = 0; j < found.length; j += 2) {
+                int value = found[j + 1];
+                if ((best >= 0 && value >= best) || !isWholeWord(text, i - found[j] + 1, i + 1)) {
+                    continue;
+                }
+                best = value;
+                if (best == 0) {
+                    return 0;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static boolean isWholeWord(CharSequence text, int start, int end) {
+        return (start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1)))
+            && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)));
+    }
+}
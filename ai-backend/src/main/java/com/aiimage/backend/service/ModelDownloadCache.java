@@ -0,0 +1,152 @@
+package com.aiimage.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Disk-backed LRU cache of meshes downloaded from TripoSR, laid out as
+ * {app.model.storage.path}/{requestId}/{filename} and capped at
+ * app.model.cache.max-bytes. TripoSR outputs never change for a given
+ * requestId/filename, so cached entries are served without revalidation.
+ */
+@Component
+public class ModelDownloadCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelDownloadCache.class);
+
+    private final LinkedHashMap<String, CachedModel> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+
+    @Value("${app.model.storage.path:models/}")
+    private String modelStoragePath;
+
+    @Value("${app.model.cache.max-bytes:2147483648}")
+    private long maxBytes;
+
+    private record CachedModel(Path path, long size) {}
+
+    @PostConstruct
+    public void loadExisting() {
+        Path root = Path.of(modelStoragePath);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        // Oldest first so the LRU order roughly follows previous use
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            List<Path> models = files
+                .filter(Files::isRegularFile)
+                .filter(path -> !path.getFileName().toString().endsWith(".part"))
+                .filter(path -> path.getParent() != null && !path.getParent().equals(root))
+                .sorted(Comparator.comparingLong(ModelDownloadCache::lastModified))
+                .toList();
+
+            synchronized (this) {
+                for (Path model : models) {
+                    String key = key(model.getParent().getFileName().toString(), model.getFileName().toString());
+                    add(key, model, Files.size(model));
+                }
+                evictIfNeeded();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to index model cache {}: {}", modelStoragePath, e.getMessage());
+        }
+
+        logger.info("Model cache holds {} files ({} bytes)", entries.size(), totalBytes);
+    }
+
+    /**
+     * Returns the cached file and marks it most recently used, or null on a miss
+     */
+    public synchronized Path lookup(String requestId, String filename) {
+        CachedModel cached = entries.get(key(requestId, filename));
+        return cached != null ? cached.path() : null;
+    }
+
+    /**
+     * Creates a temporary file next to the final location for a download in progress
+     */
+    public Path newTempFile(String requestId, String filename) throws IOException {
+        Path dir = Files.createDirectories(Path.of(modelStoragePath, requestId));
+        return Files.createFile(dir.resolve(filename + "." + UUID.randomUUID() + ".part"));
+    }
+
+    /**
+     * Moves a completed download into place and evicts least recently used files
+     * until the cache is back under its size cap
+     */
+    public synchronized void commit(String requestId, String filename, Path tempFile) throws IOException {
+        Path target = Path.of(modelStoragePath, requestId, filename);
+        long size = Files.size(tempFile);
+        Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        String key = key(requestId, filename);
+        CachedModel previous = entries.remove(key);
+        if (previous != null) {
+            totalBytes -= previous.size();
+        }
+        add(key, target, size);
+        evictIfNeeded();
+
+        logger.info("Cached model {} ({} bytes)", key, size);
+    }
+
+    public void discard(Path tempFile) {
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+            logger.warn("Failed to delete partial download {}: {}", tempFile, e.getMessage());
+        }
+    }
+
+    private void add(String key, Path path, long size) {
+        entries.put(key, new CachedModel(path, size));
+        totalBytes += size;
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, CachedModel>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, CachedModel> entry = eldest.next();
+            CachedModel evicted = entry.getValue();
+            eldest.remove();
+            totalBytes -= evicted.size();
+
+            try {
+                Files.deleteIfExists(evicted.path());
+                // Drop the requestId directory once its last file is gone
+                Files.deleteIfExists(evicted.path().getParent());
+            } catch (IOException e) {
+                // Directory still has other files, or the delete raced with a reader
+            }
+            logger.info("Evicted cached model {}", entry.getKey());
+        }
+    }
+
+    private static String key(String requestId, String filename) {
+        return requestId + "/" + filename;
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
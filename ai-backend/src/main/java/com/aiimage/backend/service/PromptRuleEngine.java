@@ -0,0 +1,109 @@
+package com.aiimage.backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rewrites prompts with the rule table at app.prompt.rules.location. When that
+ * is a file on disk it is polled for changes and reloaded in place; a file that
+ * fails to parse is logged and the previous rules stay in use. The bundled
+ * classpath rules must load, so startup fails on a broken build.
+ */
+@Component
+public class PromptRuleEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(PromptRuleEngine.class);
+
+    private final Resource location;
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failedReloads = new AtomicLong();
+    private volatile PromptRules rules;
+    private volatile long loadedModified;
+    private volatile long loadedAt;
+
+    public PromptRuleEngine(
+            @Value("${app.prompt.rules.location:classpath:prompt-rules.json}") String location,
+            ResourceLoader resourceLoader) throws IOException {
+
+        this.location = resourceLoader.getResource(location);
+        this.loadedModified = lastModified();
+        this.rules = load();
+        this.loadedAt = System.currentTimeMillis();
+        logger.info("Loaded {} prompt rule categories from {}", rules.getCategoryCount(), this.location);
+    }
+
+    /**
+     * Rewrites a prompt with one of the PromptRules profiles
+     */
+    public String rewrite(String profile, String prompt) {
+        return rules.rewrite(profile, prompt);
+    }
+
+    /**
+     * Reloads the rules if the file has changed since they were last read
+     */
+    @Scheduled(fixedDelayString = "${app.prompt.rules.reload-interval-ms:5000}")
+    public void reloadIfModified() {
+        if (!isReloadable()) {
+            return;
+        }
+        long modified = lastModified();
+        if (modified == loadedModified) {
+            return;
+        }
+
+        // Recorded up front so a broken file is reported once, not on every poll
+        loadedModified = modified;
+        try {
+            PromptRules reloaded = load();
+            rules = reloaded;
+            loadedAt = System.currentTimeMillis();
+            reloads.incrementAndGet();
+            logger.info("Reloaded {} prompt rule categories from {}", reloaded.getCategoryCount(), location);
+        } catch (IOException | RuntimeException e) {
+            failedReloads.incrementAndGet();
+            logger.warn("Keeping previous prompt rules, {} failed to load: {}", location, e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        PromptRules current = rules;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("location", location.getDescription());
+        stats.put("profiles", current.getProfileCount());
+        stats.put("categories", current.getCategoryCount());
+        stats.put("loadedAt", loadedAt);
+        stats.put("reloads", reloads.get());
+        stats.put("failedReloads", failedReloads.get());
+        return stats;
+    }
+
+    private PromptRules load() throws IOException {
+        try (InputStream in = location.getInputStream()) {
+            return PromptRules.parse(in);
+        }
+    }
+
+    private boolean isReloadable() {
+        return location.isFile();
+    }
+
+    private long lastModified() {
+        try {
+            return isReloadable() ? location.lastModified() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.aiimage.backend.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled prompt rule table (see prompt-rules.json). Each profile appends its
+ * base suffix to every prompt, plus the suffix of the first category, in file
+ * order, that has a keyword in the prompt as a whole word. Immutable, so a
+ * reload swaps in a new instance.
+ */
+public final class PromptRules {
+
+    public static final String IMAGE = "image";
+    public static final String MODEL_3D = "3d";
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record RuleFile(Map<String, ProfileRules> profiles) {}
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record ProfileRules(String suffix, List<Category> categories) {}
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    record Category(String name, List<String> keywords, String suffix) {}
+
+    private record Profile(String suffix, List<Category> categories, KeywordMatcher matcher) {
+
+        String rewrite(String prompt) {
+            int category = categories.isEmpty() ? -1 : matcher.firstMatch(prompt);
+            String result = prompt + suffix;
+            return category >= 0 ? result + categories.get(category).suffix() : result;
+        }
+    }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Map<String, Profile> profiles;
+    private final int categoryCount;
+
+    private PromptRules(Map<String, Profile> profiles, int categoryCount) {
+        this.profiles = profiles;
+        this.categoryCount = categoryCount;
+    }
+
+    /**
+     * Parses and compiles a rule file
+     *
+     * @throws IOException if it is not valid JSON or a rule is incomplete
+     */
+    public static PromptRules parse(InputStream in) throws IOException {
+        RuleFile file = MAPPER.readValue(in, RuleFile.class);
+        if (file == null || file.profiles() == null) {
+            throw new IOException("Prompt rules have no \"profiles\"");
+        }
+
+        Map<String, Profile> profiles = new HashMap<>();
+        int categoryCount = 0;
+        for (Map.Entry<String, ProfileRules> entry : file.profiles().entrySet()) {
+            ProfileRules rules = entry.getValue();
+            List<Category> categories = rules.categories() != null ? rules.categories() : List.of();
+
+            // A keyword listed under two categories belongs to the first
+            Map<String, Integer> keywords = new LinkedHashMap<>();
+            for (int i = 0; i < categories.size(); i++) {
+                Category category = categories.get(i);
+                if (category.keywords() == null || category.keywords().isEmpty() || category.suffix() == null) {
+                    throw new IOException("Category " + category.name() + " in profile " + entry.getKey()
+                        + " needs keywords and a suffix");
+                }
+                for (String keyword : category.keywords()) {
+                    keywords.putIfAbsent(keyword.trim().replaceAll("\\s+", " "), i);
+                }
+            }
+
+            String suffix = rules.suffix() != null ? rules.suffix() : "";
+            profiles.put(entry.getKey(), new Profile(suffix, List.copyOf(categories), new KeywordMatcher(keywords)));
+            categoryCount += categories.size();
+        }
+        return new PromptRules(profiles, categoryCount);
+    }
+
+    /**
+     * Returns the prompt rewritten by the named profile, or unchanged if there is
+     * no such profile
+     */
+    public String rewrite(String profile, String prompt) {
+        Profile rules = profiles.get(profile);
+        return rules != null ? rules.rewrite(prompt) : prompt;
+    }
+
+    public int getProfileCount() {
+        return profiles.size();
+    }
+
+    public int getCategoryCount() {
+        return categoryCount;
+    }
+}
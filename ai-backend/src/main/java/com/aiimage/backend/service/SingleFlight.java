@@ -0,0 +1,133 @@
+package com.aiimage.backend.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent calls that share a key into a single execution.
+ * The first caller runs the loader; callers arriving while it is in flight
+ * wait on the same future and receive the same value or exception.
+ *
+ * The loader runs with its own CancellationToken bound, which every caller
+ * joins, so the shared work is only cancelled once all of its callers are.
+ * A cancelled caller stops waiting straight away either way.
+ */
+public class SingleFlight<V> {
+
+    private final ConcurrentMap<String, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    public V execute(String key, Callable<V> loader) throws Exception {
+        CancellationToken caller = CancellationToken.current();
+
+        while (true) {
+            Flight<V> flight = new Flight<>();
+            Flight<V> existing = inFlight.putIfAbsent(key, flight);
+
+            if (existing == null) {
+                return lead(key, flight, caller, loader);
+            }
+            if (!existing.token.join(caller)) {
+                // Everyone waiting on it gave up; start over rather than share the cancellation
+                inFlight.remove(key, existing);
+                continue;
+            }
+
+            try {
+                return await(existing.future, caller);
+            } catch (GenerationCancelledException e) {
+                if (caller != null && caller.isCancelled()) {
+                    throw e;
+                }
+                inFlight.remove(key, existing);
+            }
+        }
+    }
+
+    /**
+     * Asynchronous variant: returns the shared future for the key, starting the
+     * loader only if nothing is in flight. The key is released before the future
+     * completes so later callers start fresh (and can hit any cache it filled).
+     * Each caller gets its own view of the shared future, failing with
+     * GenerationCancelledException if that caller is cancelled.
+     */
+    public CompletableFuture<V> submit(String key, Supplier<CompletableFuture<V>> loader) {
+        CancellationToken caller = CancellationToken.current();
+        Flight<V> flight = new Flight<>();
+        Flight<V> existing;
+
+        while ((existing = inFlight.putIfAbsent(key, flight)) != null) {
+            if (existing.token.join(caller)) {
+                return forCaller(existing.future, caller);
+            }
+            inFlight.remove(key, existing);
+        }
+
+        flight.token.join(caller);
+        try (CancellationToken.Scope scope = CancellationToken.bind(flight.token)) {
+            loader.get().whenComplete((value, error) -> {
+                inFlight.remove(key, flight);
+                flight.token.close();
+                if (error != null) {
+                    flight.future.completeExceptionally(error);
+                } else {
+                    flight.future.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, flight);
+            flight.token.close();
+            flight.future.completeExceptionally(e);
+            throw e;
+        }
+
+        return forCaller(flight.future, caller);
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private V lead(String key, Flight<V> flight, CancellationToken caller, Callable<V> loader) throws Exception {
+        flight.token.join(caller);
+        try (CancellationToken.Scope scope = CancellationToken.bind(flight.token)) {
+            V value = loader.call();
+            flight.future.complete(value);
+            return value;
+        } catch (Exception e) {
+            flight.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+            flight.token.close();
+        }
+    }
+
+    private V await(CompletableFuture<V> shared, CancellationToken caller) throws Exception {
+        try {
+            return forCaller(shared, caller).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private CompletableFuture<V> forCaller(CompletableFuture<V> shared, CancellationToken caller) {
+        if (caller == null) {
+            return shared;
+        }
+        CompletableFuture<V> view = shared.copy();
+        caller.onCancel(() -> view.completeExceptionally(new GenerationCancelledException(caller.getReason())));
+        return view;
+    }
+
+    private static class Flight<V> {
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private final CancellationToken token = new CancellationToken();
+    }
+}
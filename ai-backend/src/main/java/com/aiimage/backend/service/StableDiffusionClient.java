@@ -0,0 +1,246 @@
+package com.aiimage.backend.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.*;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.RestTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thin client for the Automatic1111 txt2img API shared by the image and 3D paths.
+ * Each call is routed to one of the configured instances by StableDiffusionPool.
+ *
+ * Responses are parsed with Jackson's streaming parser and each base64 image is
+ * decoded straight into a file channel, so peak heap per request stays at a few
+ * buffers regardless of image size.
+ */
+@Component
+public class StableDiffusionClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(StableDiffusionClient.class);
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private ImageStorage imageStorage;
+
+    @Autowired
+    @Qualifier("stableDiffusionRestTemplate")
+    private RestTemplate restTemplate;
+
+    @Autowired
+    @Qualifier("healthCheckRestTemplate")
+    private RestTemplate interruptRestTemplate;
+
+    @Autowired
+    private StableDiffusionPool stableDiffusionPool;
+
+    @Autowired
+    @Qualifier("stableDiffusionCircuitBreaker")
+    private CircuitBreaker circuitBreaker;
+
+    @Autowired
+    @Qualifier("stableDiffusionLimiter")
+    private BackendLimiter limiter;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    /**
+     * Posts a txt2img request and writes each returned image to a temporary file in
+     * the image storage directory. Paths are returned in response order; entries the
+     * backend left empty are returned as null to keep positions aligned. Callers own
+     * the returned files and must move or delete them.
+     *
+     * If the thread's CancellationToken is cancelled mid-render the HTTP call is
+     * aborted and, when no other request is rendering on that node, the node is
+     * told to interrupt, since SD keeps rendering for a closed connection.
+     *
+     * @throws CircuitOpenException without contacting any node while SD is marked down
+     * @throws RejectedExecutionException if too many calls are already waiting for SD
+     * @throws GenerationCancelledException if the token is cancelled
+     */
+    public List<Path> txt2img(Map<String, Object> requestBody) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+
+        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+        RequestCallback requestCallback = restTemplate.httpEntityCallback(entity);
+
+        logger.info("Sending request to local model, waiting for completion...");
+
+        GenerationJob job = GenerationJobService.currentJob();
+        CancellationToken token = CancellationToken.current();
+        Timer.Sample sample = metrics.start();
+        String outcome = "error";
+
+        try {
+            // Outside the breaker, so a full limiter never counts as a backend failure
+            List<Path> images = limiter.call(() -> circuitBreaker.call(() -> stableDiffusionPool.call(baseUrl -> {
+                if (token != null) {
+                    token.throwIfCancelled();
+                }
+                if (job != null) {
+                    // Lets the progress poller find the instance this job is rendering on
+                    job.setBackendUrl(baseUrl);
+                }
+                try {
+                    return restTemplate.execute(
+                        baseUrl + "/sdapi/v1/txt2img",
+                        HttpMethod.POST,
+                        requestCallback,
+                        response -> readImages(response.getBody())
+                    );
+                } catch (RuntimeException e) {
+                    if (token != null && token.isCancelled()) {
+                        interrupt(baseUrl);
+                        throw new GenerationCancelledException(token.getReason());
+                    }
+                    throw e;
+                }
+            })));
+
+            if (token != null && token.isCancelled()) {
+                // Finished as the cancel arrived; nobody is waiting for these
+                deleteAll(images != null ? images : List.of());
+                throw new GenerationCancelledException(token.getReason());
+            }
+
+            outcome = "success";
+            return images != null ? images : List.of();
+
+        } catch (GenerationCancelledException e) {
+            outcome = "cancelled";
+            throw e;
+        } catch (CircuitOpenException e) {
+            outcome = "circuit_open";
+            throw e;
+        } catch (RejectedExecutionException e) {
+            outcome = "rejected";
+            throw e;
+        } finally {
+            metrics.stableDiffusionCall(sample, outcome);
+        }
+    }
+
+    /**
+     * Asks the node to stop its current render. SD only has a node-wide interrupt,
+     * so this is skipped when other requests are in flight there, as the render
+     * being stopped might be one of theirs.
+     */
+    private void interrupt(String baseUrl) {
+        if (stableDiffusionPool.getOutstanding(baseUrl) > 1) {
+            logger.info("Not interrupting {}, other requests are in flight", baseUrl);
+            return;
+        }
+        try {
+            interruptRestTemplate.postForEntity(baseUrl + "/sdapi/v1/interrupt", null, String.class);
+            logger.info("Interrupted cancelled render on {}", baseUrl);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to interrupt {}: {}", baseUrl, e.getMessage());
+        }
+    }
+
+    List<Path> readImages(InputStream body) throws IOException {
+        List<Path> images = new ArrayList<>();
+
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                logger.warn("No images in response or wrong format");
+                return images;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+
+                if ("images".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                            images.add(writeImage(parser));
+                        } else {
+                            parser.skipChildren();
+                            images.add(null);
+                        }
+                    }
+                } else {
+                    // parameters/info echo the request; skip without materializing them
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            deleteAll(images);
+            throw e;
+        }
+
+        logger.info("Number of images: {}", images.size());
+        return images;
+    }
+
+    /**
+     * Decodes the current base64 string token directly to disk. Jackson decodes
+     * from its input buffer without building the String, so this never holds the
+     * full encoded or decoded image in memory.
+     */
+    private Path writeImage(JsonParser parser) throws IOException {
+        Path target = imageStorage.newTempFile();
+        Timer.Sample sample = metrics.start();
+        long written;
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE);
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_SIZE)) {
+            written = parser.readBinaryValue(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        } finally {
+            sample.stop(metrics.imageDecode());
+        }
+
+        if (written == 0) {
+            Files.deleteIfExists(target);
+            return null;
+        }
+
+        logger.info("Decoded image of {} bytes to {}", written, target);
+        return target;
+    }
+
+    /**
+     * Best-effort removal of temporary image files that no caller will claim
+     */
+    public static void deleteAll(List<Path> images) {
+        for (Path image : images) {
+            if (image != null) {
+                try {
+                    Files.deleteIfExists(image);
+                } catch (IOException e) {
+                    logger.warn("Failed to delete temporary image {}: {}", image, e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.aiimage.backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Routes Stable Diffusion calls across the instances listed in local.model.urls.
+ *
+ * Each call goes to the available node with the lowest load score: either the
+ * fewest outstanding requests, or (the default) outstanding requests weighted by
+ * an EWMA of that node's latency, so slower GPUs get proportionally less work.
+ * Health is checked passively: a node that fails app.sd.pool.eject-after-failures
+ * calls in a row is taken out of rotation for app.sd.pool.eject-ms, then retried.
+ */
+@Component
+public class StableDiffusionPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(StableDiffusionPool.class);
+
+    private static final double FAILURE_PENALTY_MS = 10000;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final boolean ewmaRouting;
+    private final double ewmaAlpha;
+    private final int ejectAfterFailures;
+    private final long ejectMs;
+
+    public StableDiffusionPool(
+            @Value("${local.model.urls:${local.model.url:http://localhost:7860}}") List<String> urls,
+            @Value("${app.sd.pool.routing:ewma}") String routing,
+            @Value("${app.sd.pool.ewma-alpha:0.3}") double ewmaAlpha,
+            @Value("${app.sd.pool.eject-after-failures:3}") int ejectAfterFailures,
+            @Value("${app.sd.pool.eject-ms:30000}") long ejectMs) {
+        for (String url : urls) {
+            String trimmed = url.trim();
+            if (!trimmed.isEmpty()) {
+                nodes.add(new Node(trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed));
+            }
+        }
+        if (nodes.isEmpty()) {
+            throw new IllegalStateException("No Stable Diffusion backends configured in local.model.urls");
+        }
+
+        this.ewmaRouting = !"least-outstanding".equalsIgnoreCase(routing);
+        this.ewmaAlpha = ewmaAlpha;
+        this.ejectAfterFailures = ejectAfterFailures;
+        this.ejectMs = ejectMs;
+
+        logger.info("Stable Diffusion pool: {} node(s), routing={}", nodes.size(),
+            ewmaRouting ? "ewma" : "least-outstanding");
+    }
+
+    /**
+     * Runs the request against the chosen node's base URL, recording its latency
+     * and outcome. Client errors (4xx) are the caller's fault and do not count
+     * against the node, nor do cancelled calls. A refused connection means
+     * nothing was sent, so the request moves on to the next node instead of
+     * failing.
+     */
+    public <T> T call(Function<String, T> request) {
+        Set<Node> tried = new HashSet<>();
+
+        while (true) {
+            Node node = choose(tried);
+            tried.add(node);
+            node.outstanding.incrementAndGet();
+            long start = System.nanoTime();
+
+            try {
+                T result = request.apply(node.url);
+                node.recordSuccess((System.nanoTime() - start) / 1_000_000);
+                return result;
+            } catch (HttpClientErrorException e) {
+                node.recordSuccess((System.nanoTime() - start) / 1_000_000);
+                throw e;
+            } catch (GenerationCancelledException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                recordFailure(node, e);
+                if (!(e.getCause() instanceof ConnectException) || tried.size() >= nodes.size()) {
+                    throw e;
+                }
+                logger.warn("Stable Diffusion node {} refused connection, trying another node", node.url);
+            } finally {
+                node.outstanding.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Requests currently in flight to the node with this base URL
+     */
+    public int getOutstanding(String url) {
+        for (Node node : nodes) {
+            if (node.url.equals(url)) {
+                return node.outstanding.get();
+            }
+        }
+        return 0;
+    }
+
+    public List<String> getUrls() {
+        return nodes.stream().map(node -> node.url).toList();
+    }
+
+    public List<Map<String, Object>> getStats() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Node node : nodes) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("url", node.url);
+            entry.put("available", node.ejectedUntil <= now);
+            entry.put("outstanding", node.outstanding.get());
+            entry.put("ewmaLatencyMs", Math.round(node.ewmaLatencyMs));
+            entry.put("requests", node.requests.get());
+            entry.put("failures", node.failures.get());
+            stats.add(entry);
+        }
+        return stats;
+    }
+
+    private Node choose(Set<Node> exclude) {
+        if (nodes.size() == 1) {
+            return nodes.get(0);
+        }
+
+        long now = System.currentTimeMillis();
+        Node best = null;
+        double bestScore = Double.MAX_VALUE;
+
+        for (Node node : nodes) {
+            if (node.ejectedUntil > now || exclude.contains(node)) {
+                continue;
+            }
+            double score = score(node);
+            if (score < bestScore) {
+                best = node;
+                bestScore = score;
+            }
+        }
+
+        if (best != null) {
+            return best;
+        }
+
+        // Everything is ejected: try whichever node is due back soonest rather than failing outright
+        Node soonest = null;
+        for (Node node : nodes) {
+            if (exclude.contains(node)) {
+                continue;
+            }
+            if (soonest == null || node.ejectedUntil < soonest.ejectedUntil) {
+                soonest = node;
+            }
+        }
+        return soonest;
+    }
+
+    private double score(Node node) {
+        int load = node.outstanding.get() + 1;
+        if (!ewmaRouting) {
+            return load;
+        }
+        // Unmeasured nodes score as fast so new or recovered nodes get traffic
+        return load * Math.max(node.ewmaLatencyMs, 1.0);
+    }
+
+    private void recordFailure(Node node, RuntimeException e) {
+        node.failures.incrementAndGet();
+        int consecutive = node.consecutiveFailures.incrementAndGet();
+        node.penalize();
+
+        if (consecutive >= ejectAfterFailures && nodes.size() > 1) {
+            node.ejectedUntil = System.currentTimeMillis() + ejectMs;
+            logger.warn("Ejecting Stable Diffusion node {} for {}ms after {} consecutive failures: {}",
+                node.url, ejectMs, consecutive, e.getMessage());
+        }
+    }
+
+    private class Node {
+        private final String url;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private volatile double ewmaLatencyMs;
+        private volatile long ejectedUntil;
+
+        Node(String url) {
+            this.url = url;
+        }
+
+        synchronized void recordSuccess(long latencyMs) {
+            requests.incrementAndGet();
+            consecutiveFailures.set(0);
+            ejectedUntil = 0;
+            ewmaLatencyMs = ewmaLatencyMs == 0 ? latencyMs : ewmaAlpha * latencyMs + (1 - ewmaAlpha) * ewmaLatencyMs;
+        }
+
+        /**
+         * Failures return quickly, so they must not make a node look fast
+         */
+        synchronized void penalize() {
+            ewmaLatencyMs = Math.max(ewmaLatencyMs * 2, FAILURE_PENALTY_MS);
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.aiimage.backend.service;
+
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two-stage text-to-3D pipeline. The Stable Diffusion stage renders the source
+ * image and hands it to the TripoSR stage, so request N+1 can render while
+ * request N is being meshed. Each stage has its own workers and bounded queue:
+ * a full SD queue rejects new work, and a full TripoSR queue blocks SD workers
+ * until there is room, so backpressure reaches the submitter.
+ *
+ * The SD stage runs at least app.scheduler.max-concurrent workers, so a render
+ * granted a scheduler permit always finds a free worker rather than holding the
+ * permit in the stage queue.
+ *
+ * With virtual threads enabled the stage workers are virtual, so the worker
+ * counts can be raised freely; the backend limiters still cap the calls.
+ */
+@Service
+public class TextTo3dPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(TextTo3dPipeline.class);
+
+    private final ThreadPoolExecutor imageStage;
+    private final ThreadPoolExecutor meshStage;
+
+    @Autowired
+    private GenerationResultCache resultCache;
+
+    @Autowired
+    private Txt2ImgBatcher txt2ImgBatcher;
+
+    @Autowired
+    private ImageStorage imageStorage;
+
+    @Autowired
+    private ImageFileIndex imageFileIndex;
+
+    @Autowired
+    private TripoSRClient tripoSRClient;
+
+    @Autowired
+    private GenerationScheduler generationScheduler;
+
+    @Autowired
+    private GenerationHistoryService generationHistoryService;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    @Autowired
+    private PromptRuleEngine promptRules;
+
+    public TextTo3dPipeline(
+            @Value("${app.pipeline.sd.workers:1}") int imageWorkers,
+            @Value("${app.pipeline.sd.queue-capacity:50}") int imageQueueCapacity,
+            @Value("${app.pipeline.triposr.workers:1}") int meshWorkers,
+            @Value("${app.pipeline.triposr.queue-capacity:10}") int meshQueueCapacity,
+            @Value("${app.scheduler.max-concurrent:4}") int maxConcurrent,
+            Environment environment) {
+
+        boolean virtual = Threading.VIRTUAL.isActive(environment);
+        this.imageStage = newStage("pipeline-sd-", virtual, Math.max(imageWorkers, maxConcurrent), imageQueueCapacity,
+            new ThreadPoolExecutor.AbortPolicy());
+        this.meshStage = newStage("pipeline-triposr-", virtual, meshWorkers, meshQueueCapacity,
+            TextTo3dPipeline::blockUntilQueued);
+    }
+
+    /**
+     * A queued prompt: its place in the scheduler queue and its final result
+     */
+    public record Submission(CompletableFuture<GenerationScheduler.Permit> grant,
+                             CompletableFuture<TextTo3dResult> result) {
+    }
+
+    /**
+     * Queues a prompt with the generation scheduler and returns its grant and a
+     * future for the final result. The scheduler permit covers the SD stage only;
+     * it is released before the image is handed to TripoSR.
+     *
+     * Cancelling the calling thread's CancellationToken fails the future with
+     * GenerationCancelledException, leaves the scheduler queue, stops a render in
+     * progress and skips the TripoSR stage.
+     *
+     * @throws GenerationRejectedException if the scheduler's queues are full
+     */
+    public Submission submit(String prompt, GenerationScheduler.Requester requester) {
+        CompletableFuture<TextTo3dResult> result = new CompletableFuture<>();
+        long startedAt = System.currentTimeMillis();
+        AtomicInteger inFlight = metrics.inFlight("3d");
+        inFlight.incrementAndGet();
+        result.whenComplete((outcome, error) -> {
+            inFlight.decrementAndGet();
+            recordHistory(prompt, outcome, error, startedAt);
+        });
+
+        CancellationToken token = CancellationToken.current();
+        CompletableFuture<GenerationScheduler.Permit> grant = generationScheduler.enqueue(requester);
+        grant.thenAccept(permit -> {
+            try {
+                imageStage.execute(() -> runImageStage(prompt, permit, token, result));
+            } catch (RejectedExecutionException e) {
+                permit.close();
+                result.completeExceptionally(e);
+            }
+        });
+
+        if (token != null) {
+            token.onCancel(() -> {
+                grant.cancel(false);
+                result.completeExceptionally(new GenerationCancelledException(token.getReason()));
+            });
+        }
+        return new Submission(grant, result);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("sd", stageStats(imageStage));
+        stats.put("triposr", stageStats(meshStage));
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        imageStage.shutdownNow();
+        meshStage.shutdownNow();
+    }
+
+    private void runImageStage(String prompt, GenerationScheduler.Permit permit, CancellationToken token,
+                               CompletableFuture<TextTo3dResult> result) {
+        try (permit; CancellationToken.Scope scope = CancellationToken.bind(token)) {
+            if (isCancelled(token)) {
+                return;
+            }
+
+            // Generate image from text using local model with 3D-optimized prompt,
+            // reusing a previous render of the exact same parameters if we have one
+            Txt2ImgParams params = build3DImageParams(prompt);
+            String filename = resultCache.lookup(params);
+
+            if (filename == null) {
+                Path renderedImage = generateImageFromText(params);
+
+                if (renderedImage == null) {
+                    result.complete(TextTo3dResult.imageFailed(prompt, "Failed to generate image from text"));
+                    return;
+                }
+
+                // Save the generated image and get URL
+                filename = saveGeneratedImage(renderedImage, params);
+
+                if (filename == null) {
+                    result.complete(TextTo3dResult.imageFailed(prompt, "Failed to save generated image"));
+                    return;
+                }
+            }
+
+            String imageUrl = "http://localhost:8080/api/images/" + filename;
+            logger.info("Generated image URL: {}", imageUrl);
+
+            if (isCancelled(token)) {
+                // The image stays cached for a retry, but nobody is waiting for the mesh
+                logger.info("Skipping TripoSR for cancelled prompt: {}", prompt);
+                return;
+            }
+
+            String imageFilename = filename;
+            permit.close();
+            meshStage.execute(() -> runMeshStage(prompt, imageUrl, imageFilename, token, result));
+
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void recordHistory(String prompt, TextTo3dResult outcome, Throwable error, long startedAt) {
+        if (error instanceof GenerationCancelledException) {
+            return;
+        }
+        if (error != null) {
+            generationHistoryService.recordFailed("3d", prompt, error.getMessage(), startedAt);
+        } else if (outcome.modelResponse() == null) {
+            generationHistoryService.recordFailed("3d", prompt, outcome.error(), startedAt);
+        } else {
+            String filename = outcome.imageUrl().substring(outcome.imageUrl().lastIndexOf('/') + 1);
+            ImageFileIndex.ImageFile image = imageFileIndex.lookup(filename);
+            generationHistoryService.recordCompleted("3d", prompt, build3DImageParams(prompt).cacheKey(), filename,
+                image != null ? image.size() : null, startedAt);
+        }
+    }
+
+    private void runMeshStage(String prompt, String imageUrl, String filename, CancellationToken token,
+                              CompletableFuture<TextTo3dResult> result) {
+        if (isCancelled(token)) {
+            return;
+        }
+
+        try (CancellationToken.Scope scope = CancellationToken.bind(token)) {
+            // Send generated image to TripoSR for 3D generation, streamed from disk
+            String response = tripoSRClient.generate3D(new FileSystemResource(imageStorage.resolve(filename)));
+
+            if (response != null) {
+                result.complete(TextTo3dResult.completed(prompt, imageUrl, response));
+            } else {
+                result.complete(TextTo3dResult.meshFailed(prompt, imageUrl, "3D generation failed"));
+            }
+
+        } catch (GenerationCancelledException e) {
+            result.completeExceptionally(e);
+        } catch (Exception e3d) {
+            logger.error("3D generation failed: {}", e3d.getMessage());
+            result.complete(TextTo3dResult.meshFailed(prompt, imageUrl, "3D generation failed: " + e3d.getMessage()));
+        }
+    }
+
+    /**
+     * Optimizes prompt specifically for 3D model generation
+     * Ensures clean backgrounds and subject fully in frame
+     */
+    String optimize3DPrompt(String originalPrompt) {
+        String optimizedPrompt = promptRules.rewrite(PromptRules.MODEL_3D, originalPrompt);
+        
+        logger.debug("Original prompt: {}", originalPrompt);
+        logger.debug("Optimized 3D prompt: {}", optimizedPrompt);
+        
+        return optimizedPrompt;
+    }
+
+    /**
+     * Gets negative prompt for 3D generation to avoid unwanted elements and cropping
+     */
+    private String get3DNegativePrompt() {
+        return "blurry, low quality, multiple objects, cluttered background, " +
+               "dark shadows, cut off edges, partial view, cropped, text, watermark, " +
+               "busy background, poor lighting, distorted, abstract, environment, " +
+               "landscape, sky, clouds, water, ocean, sea, road, street, grass, " +
+               "trees, buildings in background, people in background, " +
+               "multiple views, collage, montage, split screen, complex scene, " +
+               "cropped out, cut off, partial object, incomplete, truncated, " +
+               "edges cut, frame cutting, not fully visible, missing parts";
+    }
+
+    /**
+     * Publishes the decoded render under a unique name and returns that filename
+     */
+    private String saveGeneratedImage(Path renderedImage, Txt2ImgParams params) {
+        try {
+            long sizeBytes = Files.size(renderedImage);
+            Timer.Sample sample = metrics.start();
+            String filename = imageStorage.store(renderedImage, "3d", "png");
+            imageFileIndex.register(filename);
+            sample.stop(metrics.imageStore());
+            resultCache.put(params, filename, sizeBytes);
+            
+            logger.info("Saved 3D source image as: {}", filename);
+            return filename;
+            
+        } catch (Exception e) {
+            logger.error("Failed to save 3D source image", e);
+            try {
+                Files.deleteIfExists(renderedImage);
+            } catch (IOException ignored) {
+                // Nothing else to clean up
+            }
+            return null;
+        }
+    }
+
+    private Txt2ImgParams build3DImageParams(String prompt) {
+        // Optimize prompt specifically for 3D generation
+        String optimized3DPrompt = optimize3DPrompt(prompt);
+        String negativePrompt = get3DNegativePrompt();
+
+        return new Txt2ImgParams(
+            optimized3DPrompt, negativePrompt,
+            10,  // Keep original steps
+            512, 512,
+            7.5,  // Slightly higher for better prompt adherence
+            "DPM++ 2M Karras");  // Better sampler for clean images
+    }
+
+    private Path generateImageFromText(Txt2ImgParams params) {
+        try {
+            logger.info("Generating image with local model for 3D: {}", params.getPrompt());
+            return txt2ImgBatcher.render(params);
+
+        } catch (GenerationCancelledException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Error generating image with local model: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isCancelled(CancellationToken token) {
+        return token != null && token.isCancelled();
+    }
+
+    private static ThreadPoolExecutor newStage(String namePrefix, boolean virtual, int workers, int queueCapacity,
+                                               RejectedExecutionHandler rejectionHandler) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = virtual
+            ? new VirtualThreadTaskExecutor(namePrefix).getVirtualThreadFactory()
+            : runnable -> {
+                Thread thread = new Thread(runnable, namePrefix + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+
+        return new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), threadFactory, rejectionHandler);
+    }
+
+    /**
+     * Backpressure for the hand-off between stages: the SD worker waits for room in
+     * the TripoSR queue instead of dropping an image it has already paid for
+     */
+    private static void blockUntilQueued(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Pipeline is shutting down");
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for TripoSR stage", e);
+        }
+    }
+
+    private static Map<String, Object> stageStats(ThreadPoolExecutor stage) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queued", stage.getQueue().size());
+        stats.put("queueCapacity", stage.getQueue().size() + stage.getQueue().remainingCapacity());
+        stats.put("active", stage.getActiveCount());
+        stats.put("workers", stage.getMaximumPoolSize());
+        stats.put("completed", stage.getCompletedTaskCount());
+        return stats;
+    }
+}
@@ -0,0 +1,20 @@
+package com.aiimage.backend.service;
+
+/**
+ * Outcome of a text-to-3D run. imageUrl is null when the image stage failed;
+ * modelResponse is null when the TripoSR stage failed, in which case error says why.
+ */
+public record TextTo3dResult(String prompt, String imageUrl, String modelResponse, String error) {
+
+    static TextTo3dResult imageFailed(String prompt, String error) {
+        return new TextTo3dResult(prompt, null, null, error);
+    }
+
+    static TextTo3dResult meshFailed(String prompt, String imageUrl, String error) {
+        return new TextTo3dResult(prompt, imageUrl, null, error);
+    }
+
+    static TextTo3dResult completed(String prompt, String imageUrl, String modelResponse) {
+        return new TextTo3dResult(prompt, imageUrl, modelResponse, null);
+    }
+}
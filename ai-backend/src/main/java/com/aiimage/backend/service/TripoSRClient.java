@@ -0,0 +1,119 @@
+package com.aiimage.backend.service;
+
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Client for the TripoSR image-to-3D API
+ */
+@Component
+public class TripoSRClient {
+
+    @Value("${triposr.api.url:http://localhost:5000}")
+    private String triposrApiUrl;
+
+    @Autowired
+    @Qualifier("tripoSRRestTemplate")
+    private RestTemplate restTemplate;
+
+    @Autowired
+    @Qualifier("tripoSRCircuitBreaker")
+    private CircuitBreaker circuitBreaker;
+
+    @Autowired
+    @Qualifier("tripoSRLimiter")
+    private BackendLimiter limiter;
+
+    @Autowired
+    private GenerationMetrics metrics;
+
+    /**
+     * Uploads an image to /generate-3d and returns TripoSR's raw JSON response.
+     * Fails immediately while the TripoSR circuit is open, and throws
+     * RejectedExecutionException if too many calls are already waiting for TripoSR.
+     * Cancelling the thread's CancellationToken aborts the upload or the wait for
+     * the result with GenerationCancelledException.
+     */
+    public String generate3D(Resource image) {
+        CancellationToken token = CancellationToken.current();
+        Timer.Sample sample = metrics.start();
+        String outcome = "error";
+
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+
+            // Use fixed filename for TripoSR
+            HttpHeaders partHeaders = new HttpHeaders();
+            partHeaders.setContentDispositionFormData("image", "generated_image.png");
+            partHeaders.setContentType(MediaType.IMAGE_PNG);
+
+            MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+            body.add("image", new HttpEntity<>(image, partHeaders));
+
+            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
+
+            String response = limiter.call(() -> circuitBreaker.call(() -> {
+                if (token != null) {
+                    token.throwIfCancelled();
+                }
+                try {
+                    return restTemplate.postForObject(
+                        triposrApiUrl + "/generate-3d",
+                        requestEntity,
+                        String.class
+                    );
+                } catch (RuntimeException e) {
+                    if (token != null && token.isCancelled()) {
+                        throw new GenerationCancelledException(token.getReason());
+                    }
+                    throw e;
+                }
+            }));
+            outcome = "success";
+            return response;
+
+        } catch (GenerationCancelledException e) {
+            outcome = "cancelled";
+            throw e;
+        } catch (RejectedExecutionException e) {
+            outcome = "rejected";
+            throw e;
+        } catch (CircuitOpenException e) {
+            outcome = "circuit_open";
+            throw new RuntimeException("Failed to generate 3D model from image: " + e.getMessage(), e);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to generate 3D model from image: " + e.getMessage(), e);
+        } finally {
+            metrics.tripoSRCall(sample, outcome);
+        }
+    }
+
+    /**
+     * Streams a generated file from TripoSR's /download endpoint into the handler,
+     * through the same limiter and circuit breaker as generation calls
+     *
+     * @throws org.springframework.web.client.HttpClientErrorException.NotFound if TripoSR has no such file
+     * @throws CircuitOpenException without contacting TripoSR while it is marked down
+     * @throws RejectedExecutionException if too many calls are already waiting for TripoSR
+     */
+    public void download(String requestId, String filename, ResponseExtractor<Void> handler) {
+        URI url = URI.create(triposrApiUrl + "/download/" + requestId + "/" + filename);
+        limiter.call(() -> circuitBreaker.call(() -> restTemplate.execute(url, HttpMethod.GET, null, handler)));
+    }
+}
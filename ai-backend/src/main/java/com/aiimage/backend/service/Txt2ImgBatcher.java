@@ -0,0 +1,236 @@
+package com.aiimage.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Micro-batching stage in front of txt2img. Requests with the same sampler settings
+ * arriving within app.batching.window-ms are sent as one call with batch_size set
+ * and one prompt per image, and the returned images are handed back by position.
+ *
+ * The first caller of a batch acts as its leader: it waits out the window (or
+ * until the batch is full), then performs the call on behalf of everyone.
+ * Callers that pass a Requester hold no scheduler permit; the call takes one
+ * only once it is sent, so a batch being collected holds none. Callers without
+ * one (the 3D pipeline) already hold their own.
+ *
+ * This does not work with stock AUTOMATIC1111: its txt2img API only takes a
+ * single prompt string and rejects a list. Identical prompts are already
+ * coalesced upstream, so a list is the only way to batch, and batching is off
+ * by default. Only enable it against a patched or proxy backend that accepts a
+ * list of per-image prompts. Requests with a fixed seed always go alone, since
+ * SD would give later batch members seed+1, seed+2 and so on.
+ *
+ * A batch is shared work with its own CancellationToken, which every member
+ * joins: the leader's wait for a permit stops only once all of them have been
+ * cancelled, and the backend call itself is never cancelled.
+ */
+@Component
+public class Txt2ImgBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(Txt2ImgBatcher.class);
+
+    private final StableDiffusionClient stableDiffusionClient;
+    private final Map<String, PendingBatch> openBatches = new HashMap<>();
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong imagesRendered = new AtomicLong();
+
+    @Autowired
+    private GenerationScheduler generationScheduler;
+
+    @Value("${app.batching.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.batching.window-ms:50}")
+    private long windowMs;
+
+    @Value("${app.batching.max-batch-size:4}")
+    private int maxBatchSize;
+
+    public Txt2ImgBatcher(StableDiffusionClient stableDiffusionClient) {
+        this.stableDiffusionClient = stableDiffusionClient;
+    }
+
+    @PostConstruct
+    void warnIfEnabled() {
+        if (enabled && maxBatchSize > 1) {
+            logger.warn("txt2img batching is on: batches send a list of prompts, which stock AUTOMATIC1111 rejects");
+        }
+    }
+
+    /**
+     * Renders for a caller that already holds a scheduler permit
+     */
+    public Path render(Txt2ImgParams params) throws Exception {
+        return render(params, null);
+    }
+
+    /**
+     * Renders one image, possibly as part of a batch, and blocks until it is ready.
+     * With a requester, a scheduler permit is taken for the backend call itself.
+     * Returns a temporary file the caller must move into place, or null.
+     *
+     * @throws GenerationRejectedException if the scheduler's queues are full
+     */
+    public Path render(Txt2ImgParams params, GenerationScheduler.Requester requester) throws Exception {
+        if (!enabled || maxBatchSize <= 1 || params.getSeed() >= 0) {
+            return requester != null
+                ? generationScheduler.call(requester, () -> renderAlone(params))
+                : renderAlone(params);
+        }
+
+        String key = params.batchCompatibilityKey();
+
+        PendingBatch batch;
+        CompletableFuture<Path> result;
+        boolean leader = false;
+
+        synchronized (openBatches) {
+            batch = openBatches.get(key);
+            // A batch whose members have all given up is left to fail on its own
+            if (batch == null || !batch.token.join(CancellationToken.current())) {
+                batch = new PendingBatch();
+                batch.token.join(CancellationToken.current());
+                openBatches.put(key, batch);
+                leader = true;
+            }
+
+            result = batch.add(params);
+
+            if (batch.size() >= maxBatchSize) {
+                openBatches.remove(key);
+                batch.full.countDown();
+            }
+        }
+
+        if (leader) {
+            batch.full.await(windowMs, TimeUnit.MILLISECONDS);
+            synchronized (openBatches) {
+                openBatches.remove(key, batch);
+            }
+            dispatchWithPermit(batch, requester);
+        }
+
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long batches = batchesSent.get();
+        long images = imagesRendered.get();
+        return Map.of(
+            "enabled", enabled,
+            "windowMs", windowMs,
+            "batches", batches,
+            "images", images,
+            "averageBatchSize", batches == 0 ? 0.0 : (double) images / batches
+        );
+    }
+
+    private Path renderAlone(Txt2ImgParams params) throws Exception {
+        List<Path> images = stableDiffusionClient.txt2img(params.toRequestBody());
+        if (images.isEmpty()) {
+            return null;
+        }
+        StableDiffusionClient.deleteAll(images.subList(1, images.size()));
+        return images.get(0);
+    }
+
+    /**
+     * The whole batch is one backend call, so it takes one permit, on the
+     * leader's behalf. The wait is tied to the batch's token rather than the
+     * leader's, since the other members depend on it.
+     */
+    private void dispatchWithPermit(PendingBatch batch, GenerationScheduler.Requester requester) {
+        if (requester == null) {
+            dispatch(batch);
+            batch.token.close();
+            return;
+        }
+        try (CancellationToken.Scope scope = CancellationToken.bind(batch.token)) {
+            generationScheduler.call(requester, () -> {
+                dispatch(batch);
+                return null;
+            });
+        } catch (Exception e) {
+            for (CompletableFuture<Path> pending : batch.results) {
+                pending.completeExceptionally(e);
+            }
+        } finally {
+            batch.token.close();
+        }
+    }
+
+    private void dispatch(PendingBatch batch) {
+        List<Txt2ImgParams> members = batch.members;
+        Map<String, Object> requestBody = members.get(0).toRequestBody();
+        requestBody.put("batch_size", members.size());
+        requestBody.put("n_iter", 1);
+
+        if (members.size() > 1) {
+            List<String> prompts = new ArrayList<>();
+            for (Txt2ImgParams member : members) {
+                prompts.add(member.getPrompt());
+            }
+            requestBody.put("prompt", prompts);
+        }
+
+        logger.info("Dispatching txt2img batch of {}", members.size());
+
+        try (CancellationToken.Scope unbound = CancellationToken.bind(null)) {
+            List<Path> images = stableDiffusionClient.txt2img(requestBody);
+            batchesSent.incrementAndGet();
+            imagesRendered.addAndGet(images.size());
+
+            for (int i = 0; i < members.size(); i++) {
+                batch.results.get(i).complete(i < images.size() ? images.get(i) : null);
+            }
+            if (images.size() > members.size()) {
+                StableDiffusionClient.deleteAll(images.subList(members.size(), images.size()));
+            }
+        } catch (Exception e) {
+            for (CompletableFuture<Path> pending : batch.results) {
+                pending.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class PendingBatch {
+        private final List<Txt2ImgParams> members = new ArrayList<>();
+        private final List<CompletableFuture<Path>> results = new ArrayList<>();
+        private final CountDownLatch full = new CountDownLatch(1);
+        private final CancellationToken token = new CancellationToken();
+
+        CompletableFuture<Path> add(Txt2ImgParams params) {
+            CompletableFuture<Path> future = new CompletableFuture<>();
+            members.add(params);
+            results.add(future);
+            return future;
+        }
+
+        int size() {
+            return members.size();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.aiimage.backend.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Immutable set of Automatic1111 txt2img parameters for a single render
+ */
+public final class Txt2ImgParams {
+
+    private final String prompt;
+    private final String negativePrompt;
+    private final int steps;
+    private final int width;
+    private final int height;
+    private final double cfgScale;
+    private final String samplerName;
+    private final long seed;
+    private final String model;
+
+    public Txt2ImgParams(String prompt, String negativePrompt, int steps, int width, int height,
+                         double cfgScale, String samplerName) {
+        this(prompt, negativePrompt, steps, width, height, cfgScale, samplerName, -1, null);
+    }
+
+    /**
+     * @param seed fixed seed, or -1 to let SD pick one
+     * @param model checkpoint to render with, or null for the one SD has loaded
+     */
+    public Txt2ImgParams(String prompt, String negativePrompt, int steps, int width, int height,
+                         double cfgScale, String samplerName, long seed, String model) {
+        this.prompt = prompt;
+        this.negativePrompt = negativePrompt;
+        this.steps = steps;
+        this.width = width;
+        this.height = height;
+        this.cfgScale = cfgScale;
+        this.samplerName = samplerName;
+        this.seed = seed;
+        this.model = model;
+    }
+
+    /**
+     * Builds the JSON body expected by /sdapi/v1/txt2img
+     */
+    public Map<String, Object> toRequestBody() {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("prompt", prompt);
+        requestBody.put("negative_prompt", negativePrompt);
+        requestBody.put("steps", steps);
+        requestBody.put("width", width);
+        requestBody.put("height", height);
+        requestBody.put("cfg_scale", cfgScale);
+        requestBody.put("sampler_name", samplerName);
+        if (seed >= 0) {
+            requestBody.put("seed", seed);
+        }
+        if (model != null) {
+            // A1111 restores the previous checkpoint afterwards, so this costs two checkpoint loads
+            requestBody.put("override_settings", Map.of("sd_model_checkpoint", model));
+        }
+        return requestBody;
+    }
+
+    /**
+     * Content-addressed key: SHA-256 over every parameter that affects the rendered image.
+     * Seed and model only take part when set, so keys of default renders are unchanged.
+     */
+    public String cacheKey() {
+        String canonical = String.join("\u0000",
+            prompt, negativePrompt, Integer.toString(steps), Integer.toString(width),
+            Integer.toString(height), Double.toString(cfgScale), samplerName) + optionalKeyParts();
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(canonical.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Key shared by requests that can be rendered together in one batched call:
+     * everything except the prompt itself
+     */
+    public String batchCompatibilityKey() {
+        return String.join("\u0000",
+            negativePrompt, Integer.toString(steps), Integer.toString(width),
+            Integer.toString(height), Double.toString(cfgScale), samplerName) + optionalKeyParts();
+    }
+
+    private String optionalKeyParts() {
+        return (seed >= 0 ? "\u0000seed=" + seed : "") + (model != null ? "\u0000model=" + model : "");
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public String getNegativePrompt() {
+        return negativePrompt;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getCfgScale() {
+        return cfgScale;
+    }
+
+    public String getSamplerName() {
+        return samplerName;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public String getModel() {
+        return model;
+    }
+}
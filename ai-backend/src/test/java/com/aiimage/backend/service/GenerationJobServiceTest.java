@@ -0,0 +1,136 @@
+package com.aiimage.backend.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class GenerationJobServiceTest {
+
+    private static final GenerationScheduler.Requester SYNC_CLIENT =
+        new GenerationScheduler.Requester("addr:10.0.0.1", GenerationScheduler.Lane.INTERACTIVE);
+    private static final GenerationScheduler.Requester JOB_CLIENT =
+        new GenerationScheduler.Requester("addr:10.0.0.2", GenerationScheduler.Lane.INTERACTIVE);
+
+    private GenerationScheduler scheduler;
+    private GenerationJobService jobService;
+    private SingleFlight<String> renders;
+    private GenerationScheduler.Permit busy;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new GenerationScheduler(1, 20, 100, 500, List.of());
+        ReflectionTestUtils.setField(scheduler, "metrics", new GenerationMetrics(new SimpleMeterRegistry()));
+
+        CancellationService cancellationService = mock(CancellationService.class);
+        when(cancellationService.newToken()).thenAnswer(invocation -> new CancellationToken());
+
+        jobService = new GenerationJobService(new SimpleAsyncTaskExecutor("job-"), scheduler, cancellationService);
+        renders = new SingleFlight<>();
+
+        // Someone else's render holds the only permit
+        busy = scheduler.enqueue(SYNC_CLIENT).join();
+    }
+
+    @AfterEach
+    void tearDown() {
+        busy.close();
+    }
+
+    @Test
+    void jobJoiningQueuedRenderHoldsNoPermit() throws Exception {
+        CompletableFuture<String> syncRequest = startSyncRender("shared");
+        awaitCondition(() -> waiting() == 1);
+
+        GenerationJob job = jobService.submit("image", "shared", () -> render("shared", JOB_CLIENT));
+        awaitCondition(() -> jobService.getActiveCount() == 1);
+
+        assertEquals(1, scheduler.getStats().get("active"));
+        assertEquals(1, waiting());
+        assertEquals(GenerationJob.Status.QUEUED, job.getStatus());
+
+        busy.close();
+
+        assertEquals("rendered for addr:10.0.0.1", syncRequest.get(5, TimeUnit.SECONDS));
+        assertEquals("rendered for addr:10.0.0.1", job.getFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(GenerationJob.Status.COMPLETED, job.getStatus());
+        assertEquals(0, scheduler.getStats().get("active"));
+    }
+
+    @Test
+    void cancelledJobStopsWaitingOnQueuedRender() throws Exception {
+        CompletableFuture<String> syncRequest = startSyncRender("shared");
+        awaitCondition(() -> waiting() == 1);
+
+        GenerationJob job = jobService.submit("image", "shared", () -> render("shared", JOB_CLIENT));
+        awaitCondition(() -> jobService.getActiveCount() == 1);
+
+        assertTrue(jobService.cancel(job));
+        job.getFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(GenerationJob.Status.CANCELLED, job.getStatus());
+
+        // The render it joined still runs for the request that started it
+        busy.close();
+        assertEquals("rendered for addr:10.0.0.1", syncRequest.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void jobStartingItsOwnRenderIsQueuedUntilGranted() throws Exception {
+        CompletableFuture<GenerationScheduler.Permit> earlier = scheduler.enqueue(JOB_CLIENT);
+        GenerationJob job = jobService.submit("image", "own", () -> render("own", JOB_CLIENT));
+        awaitCondition(() -> waiting() == 2);
+
+        assertEquals(GenerationJob.Status.QUEUED, job.getStatus());
+        assertEquals(1, jobService.getQueuePosition(job));
+
+        busy.close();
+        earlier.join().close();
+
+        assertEquals("rendered for addr:10.0.0.2", job.getFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(GenerationJob.Status.COMPLETED, job.getStatus());
+    }
+
+    /**
+     * A render as ImageGenerationService does it: shared between identical
+     * requests, taking a permit only in the request that starts it
+     */
+    private String render(String key, GenerationScheduler.Requester requester) throws Exception {
+        return renders.execute(key, () -> scheduler.call(requester, () -> "rendered for " + requester.clientId()));
+    }
+
+    private CompletableFuture<String> startSyncRender(String key) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (CancellationToken token = new CancellationToken();
+                 CancellationToken.Scope scope = CancellationToken.bind(token)) {
+                return render(key, SYNC_CLIENT);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private int waiting() {
+        return (Integer) scheduler.getStats().get("interactiveWaiting");
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "condition not reached in time");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -490,6 +490,8 @@ export default function ThreeDGenerator() {
           method: 'POST',
           headers: {
             'Content-Type': 'application/json',
+            // Lets the backend notice if this page goes away; errors can then arrive with a 200
+            'X-Heartbeat': 'true',
           },
           body: JSON.stringify({ prompt: prompt.trim() }),
           mode: 'cors',
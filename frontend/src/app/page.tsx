@@ -42,6 +42,8 @@ export default function Home() {
         method: 'POST',
         headers: {
           'Content-Type': 'application/json',
+          // Lets the backend notice if this page goes away; errors can then arrive with a 200
+          'X-Heartbeat': 'true',
         },
         body: JSON.stringify({ prompt: prompt.trim() }),
         mode: 'cors',
@@ -53,6 +55,11 @@ export default function Home() {
 
       const data = await response.json();
 
+      // Long renders send the status before the result is known, so errors can arrive with a 200
+      if (data.status === 'error') {
+        throw new Error(data.error);
+      }
+
       const newImage: GeneratedImage = {
         id: Date.now().toString(),
         prompt: prompt.trim(),